@@ -0,0 +1,117 @@
+package bguspl.set;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Decodes the card images in the background, so the game can start before every image is ready.
+ * Cards whose image is not decoded yet are drawn as empty cards until it is.
+ */
+public class CardImages {
+
+    /**
+     * The decoded card images (null if not decoded yet).
+     */
+    private final AtomicReferenceArray<Image> deck;
+
+    /**
+     * The pool of decoding threads (shut down once all images are decoded).
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Completes once all card images are decoded.
+     */
+    private final CompletableFuture<Void> loaded;
+
+    static String intInBaseToPaddedString(int n, int padding, int base) {
+        return String.format("%" + padding + "s", Integer.toString(n, base)).replace(' ', '0');
+    }
+
+    static Image loadImageResource(String filename) {
+        URL imageResource = CardImages.class.getClassLoader().getResource(filename);
+        if (imageResource == null)
+            throw new RuntimeException(new FileNotFoundException(filename));
+        try {
+            return ImageIO.read(imageResource);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Loads the image of a card, or draws one showing its features if the deck variant has no card images.
+     */
+    private static Image loadCardImage(Config config, int card) {
+        String filename = "cards/" + intInBaseToPaddedString(card, config.featureCount, config.featureSize) + ".png";
+        if (CardImages.class.getClassLoader().getResource(filename) != null)
+            return loadImageResource(filename);
+
+        BufferedImage image = new BufferedImage(config.cellWidth, config.cellHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, config.cellWidth, config.cellHeight);
+        g.setColor(Color.DARK_GRAY);
+        g.drawRect(0, 0, config.cellWidth - 1, config.cellHeight - 1);
+        g.setFont(new Font("Monospaced", Font.BOLD, Math.max(10, config.cellHeight / 5)));
+        String text = intInBaseToPaddedString(card, config.featureCount, config.featureSize);
+        FontMetrics metrics = g.getFontMetrics();
+        g.drawString(text, (config.cellWidth - metrics.stringWidth(text)) / 2, (config.cellHeight + metrics.getAscent()) / 2);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Starts decoding all the card images of the deck in the background.
+     *
+     * @param config - the game configuration.
+     */
+    public CardImages(Config config) {
+        deck = new AtomicReferenceArray<>(config.deckSize);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "card-images");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // init deck and load all pictures from png files (feature values above 9 are named by letters)
+        CompletableFuture<?>[] cards = new CompletableFuture<?>[config.deckSize];
+        for (int i = 0; i < config.deckSize; ++i) {
+            int card = i;
+            cards[i] = CompletableFuture.runAsync(() -> deck.set(card, loadCardImage(config, card)), executor);
+        }
+        loaded = CompletableFuture.allOf(cards);
+        loaded.whenComplete((ignored, e) -> executor.shutdown());
+    }
+
+    /**
+     * @param card - the card id.
+     * @return - the image of the card, or null if it was not decoded yet.
+     */
+    public Image get(int card) {
+        return deck.get(card);
+    }
+
+    /**
+     * @return - a future that completes once all card images are decoded.
+     */
+    public CompletableFuture<Void> loaded() {
+        return loaded;
+    }
+
+    /**
+     * Stops decoding the images that were not decoded yet.
+     */
+    public void cancel() {
+        executor.shutdownNow();
+    }
+}
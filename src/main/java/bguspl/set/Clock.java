@@ -0,0 +1,45 @@
+package bguspl.set;
+
+/**
+ * The game's source of time: the current time, and waiting for time to pass. The game reads the time and waits only
+ * through its clock (see Env.clock), so it can run in real time (RealClock) or in virtual time that skips the waits
+ * (VirtualClock). Times are monotonic: only the difference between two times is meaningful.
+ */
+public interface Clock {
+
+    /**
+     * @return - the current time (in milliseconds).
+     */
+    long millis();
+
+    /**
+     * @return - the current time (in nanoseconds).
+     */
+    long nanos();
+
+    /**
+     * Waits for the given time to pass.
+     *
+     * @param millis - the number of milliseconds to wait.
+     * @throws InterruptedException - if the thread is interrupted while waiting.
+     */
+    void sleep(long millis) throws InterruptedException;
+
+    /**
+     * Waits on a monitor, which the calling thread holds, until it is notified or the given time passes (like
+     * Object.wait).
+     *
+     * @param monitor - the monitor.
+     * @param millis  - the maximal number of milliseconds to wait (0 to wait until notified).
+     * @throws InterruptedException - if the thread is interrupted while waiting.
+     */
+    void await(Object monitor, long millis) throws InterruptedException;
+
+    /**
+     * Enrolls a thread of the game as one of the threads waiting on the clock, before it first waits (a virtual clock
+     * does not move while such a thread runs). Threads that only read the time need not be enrolled.
+     *
+     * @param thread - the thread.
+     */
+    default void register(Thread thread) {}
+}
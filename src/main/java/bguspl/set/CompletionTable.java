@@ -0,0 +1,132 @@
+package bguspl.set;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The card completing each pair of cards to a set, and the sets each card is part of, for decks whose sets have three
+ * cards (config.featureSize == 3). With it, completing a pair and testing a set are single array lookups, and the
+ * sets containing a card are listed without a search (the standard deck of 81 cards has 1080 sets, 40 per card).
+ * The tables are built once per deck (number of features) and shared by all the games in the JVM (see forDeck).
+ */
+public final class CompletionTable {
+
+    /**
+     * The largest deck a table is built for (its pair table takes 2 * deckSize^2 bytes).
+     */
+    private static final int MAX_DECK_SIZE = 729;
+
+    /**
+     * The tables built so far, by the number of features.
+     */
+    private static final Map<Integer, CompletionTable> tables = new ConcurrentHashMap<>();
+
+    private final int deckSize;
+
+    /**
+     * The card completing each pair of cards (a * deckSize + b) to a set (a itself if b == a).
+     */
+    private final short[] third;
+
+    /**
+     * The cards of each set, in ascending order (set * 3 + i).
+     */
+    private final short[] setCards;
+
+    /**
+     * The sets each card is part of.
+     */
+    private final int[][] setsOf;
+
+    /**
+     * Returns the table of a deck, building it on first use.
+     *
+     * @param config - the game configuration.
+     * @return - the table of the configured deck, or null if it has none (sets of more than three cards, or a deck too
+     * large to tabulate).
+     */
+    public static CompletionTable forDeck(Config config) {
+        if (config.featureSize != 3 || config.deckSize > MAX_DECK_SIZE) return null;
+        return tables.computeIfAbsent(config.featureCount, featureCount -> new CompletionTable(featureCount, config.deckSize));
+    }
+
+    private CompletionTable(int featureCount, int deckSize) {
+        this.deckSize = deckSize;
+        third = new short[deckSize * deckSize];
+        int setCount = deckSize * (deckSize - 1) / 6;
+        setCards = new short[setCount * 3];
+        int[] setsPerCard = new int[deckSize];
+
+        int set = 0;
+        for (int a = 0; a < deckSize; a++) {
+            for (int b = a; b < deckSize; b++) {
+                // each feature of the third card is the one value that makes the three values all same or all different
+                int c = 0;
+                for (int i = 0, a1 = a, b1 = b, placeValue = 1; i < featureCount; i++, a1 /= 3, b1 /= 3, placeValue *= 3)
+                    c += (6 - a1 % 3 - b1 % 3) % 3 * placeValue;
+                third[a * deckSize + b] = third[b * deckSize + a] = (short) c;
+                if (c > b) {
+                    setCards[set * 3] = (short) a;
+                    setCards[set * 3 + 1] = (short) b;
+                    setCards[set * 3 + 2] = (short) c;
+                    ++setsPerCard[a];
+                    ++setsPerCard[b];
+                    ++setsPerCard[c];
+                    ++set;
+                }
+            }
+        }
+
+        setsOf = new int[deckSize][];
+        for (int card = 0; card < deckSize; card++)
+            setsOf[card] = new int[setsPerCard[card]];
+        int[] filled = new int[deckSize];
+        for (set = 0; set < setCount; set++)
+            for (int i = 0; i < 3; i++) {
+                int card = setCards[set * 3 + i];
+                setsOf[card][filled[card]++] = set;
+            }
+    }
+
+    /**
+     * @param a - a card.
+     * @param b - another card.
+     * @return - the card completing the two cards to a set.
+     */
+    public int third(int a, int b) {
+        return third[a * deckSize + b];
+    }
+
+    /**
+     * @return - the number of sets in the deck.
+     */
+    public int sets() {
+        return setCards.length / 3;
+    }
+
+    /**
+     * @param set - a set (0 to sets() - 1).
+     * @param i   - the index of a card in the set (0 to 2, in ascending order of the cards).
+     * @return - the card.
+     */
+    public int card(int set, int i) {
+        return setCards[set * 3 + i];
+    }
+
+    /**
+     * @param card - a card.
+     * @return - the number of sets the card is part of.
+     */
+    public int setsOf(int card) {
+        return setsOf[card].length;
+    }
+
+    /**
+     * @param card - a card.
+     * @param i    - the index of one of the sets the card is part of (0 to setsOf(card) - 1).
+     * @return - the set.
+     */
+    public int setOf(int card, int i) {
+        return setsOf[card][i];
+    }
+}
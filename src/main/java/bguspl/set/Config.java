@@ -1,12 +1,19 @@
 package bguspl.set;
 
+import bguspl.set.ex.NoSetPolicy;
+import bguspl.set.ex.ReshuffleKeyPolicy;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,6 +22,12 @@ import java.util.logging.Logger;
  */
 public class Config {
 
+    /**
+     * The logger level and format
+     */
+    public final Level logLevel;
+    public final String logFormat;
+
     /**
      * Random spin cycles for Config::randomSpin (for debugging / testing)
      */
@@ -27,7 +40,7 @@ public class Config {
     public final int featureCount;
 
     /**
-     * The number of choices for each feature (e.g. red, green, blue)
+     * The number of choices for each feature (e.g. red, green, blue), which is also the number of cards in a set
      */
     public final int featureSize;
 
@@ -36,6 +49,12 @@ public class Config {
      */
     public final int deckSize;
 
+    /**
+     * The minimal number of cards for which sets are searched for in parallel (smaller collections are searched
+     * sequentially)
+     */
+    public final int parallelSearchThreshold;
+
     /**
      * The number of human players in the game.
      */
@@ -56,6 +75,11 @@ public class Config {
      */
     public final boolean hints;
 
+    /**
+     * Where the hints are written: "console" or "log" (applied on restart only)
+     */
+    public final String hintSink;
+
     /**
      * The number of milliseconds until the dealer reshuffles the deck (0 show timer since last action, -1 show nothing)
      */
@@ -66,6 +90,31 @@ public class Config {
      */
     public final long turnTimeoutWarningMillis;
 
+    /**
+     * The number of milliseconds between two consecutive renders of the countdown display
+     */
+    public final long countdownRefreshMillis;
+
+    /**
+     * The number of sets the dealer makes sure the table has when it deals cards, if the deck allows (0 deals at random)
+     */
+    public final int refillSets;
+
+    /**
+     * What happens to the keys pressed while the dealer deals or reshuffles the table
+     */
+    public final ReshuffleKeyPolicy reshuffleKeyPolicy;
+
+    /**
+     * What the dealer does when the cards on the table contain no set
+     */
+    public final NoSetPolicy noSetPolicy;
+
+    /**
+     * The number of milliseconds a claim waits for competing claims that were made earlier (but submitted later)
+     */
+    public final long claimWindowMillis;
+
     /**
      * The number of milliseconds a player gets frozen for when he scores a point
      */
@@ -86,6 +135,90 @@ public class Config {
      */
     public final long endGamePauseMillies;
 
+    /**
+     * The number of milliseconds between two dumps of the game metrics to a file (0 for no dumps)
+     */
+    public final long metricsDumpMillis;
+
+    /**
+     * The number of milliseconds between two samples of the game threads' lock contention (0 for no sampling)
+     */
+    public final long contentionSampleMillis;
+
+    /**
+     * The localhost port of the monitoring http endpoint (-1 for no endpoint)
+     */
+    public final int monitorPort;
+
+    /**
+     * The port the game server accepts remote players and spectators on (-1 for no server)
+     */
+    public final int serverPort;
+
+    /**
+     * The number of milliseconds between two batches of game updates sent to the network clients
+     */
+    public final long networkTickMillis;
+
+    /**
+     * The number of bytes a network client may fall behind before it is dropped
+     */
+    public final long networkBacklogBytes;
+
+    /**
+     * The number of milliseconds between two checkpoints of the game state (0 for no checkpoints)
+     */
+    public final long checkpointMillis;
+
+    /**
+     * The directory the checkpoints and journals of the game state are written to
+     */
+    public final String checkpointDir;
+
+    /**
+     * The directory the players' statistics are kept in across games (empty for no statistics)
+     */
+    public final String statsDir;
+
+    /**
+     * True iff the game runs in virtual time, which skips all the waits (see VirtualClock)
+     */
+    public final boolean virtualTime;
+
+    /**
+     * The number of games a tournament runs (see Tournament)
+     */
+    public final int tournamentGames;
+
+    /**
+     * The number of games a tournament runs at the same time, and the number of games that may wait for one of them to
+     * end before no more games are scheduled
+     */
+    public final int tournamentWorkers;
+    public final int tournamentBacklog;
+
+    /**
+     * The number of milliseconds a tournament game may run before it is terminated
+     */
+    public final long tournamentGameTimeoutMillis;
+
+    /**
+     * The entrants of a tournament, as name:strategy (see ex.Strategy)
+     */
+    public final String[] tournamentEntrants;
+
+    /**
+     * The number of games the simulator plays (see ex.Simulator)
+     */
+    public final int simulationGames;
+
+    /**
+     * The mean number of milliseconds it takes a simulated player to find a set on the table, and the fraction of the
+     * claims of simulated players that are wrong
+     */
+    public final long simulationSearchMillis;
+    public final double simulationMistakeRate;
+
     /**
      * The names of the players to display on the screen
      * Note: if there are more players than names, the remaining players will be called "Player 3", "Player 4", etc.
@@ -107,6 +240,12 @@ public class Config {
      */
     public final int tableSize;
 
+    /**
+     * The number of regions the table slots are partitioned into, each validating its own claims in parallel
+     * (1 for a single dealer thread)
+     */
+    public final int regions;
+
     /**
      * The width (in pixels) of each cell
      */
@@ -153,23 +292,24 @@ public class Config {
      * as a resource.
      *
      * @param filename - the name of the configuration file.
+     * @param log      - receives the warnings issued while loading (the logger may not be ready yet).
      * @return - a properties object with the configuration file contents.
      */
-    private static Properties loadProperties(String filename, Logger logger) {
+    static Properties loadProperties(String filename, Consumer<String> log) {
 
         Properties properties = new Properties();
 
         if (filename == null || filename.isEmpty())
-            logger.severe("running with default configuration.");
+            log.accept("running with default configuration.");
         else try (InputStream is = Files.newInputStream(Paths.get(filename))) {
             properties.load(is);
         } catch (IOException e) {
-            logger.severe("cannot read configuration file " + filename + " trying from resources.");
+            log.accept("cannot read configuration file " + filename + " trying from resources.");
             try (InputStream is = Config.class.getClassLoader().getResourceAsStream(filename)) {
                 properties.load(is);
-                logger.severe("configuration file was loaded from resources directory.");
+                log.accept("configuration file was loaded from resources directory.");
             } catch (IOException | InvalidPathException ex) {
-                logger.severe("warning: cannot read config file from the resources directory either. Using defaults.");
+                log.accept("warning: cannot read config file from the resources directory either. Using defaults.");
             }
         }
 
@@ -177,15 +317,25 @@ public class Config {
     }
 
     public Config(Logger logger, String configFilename) {
-        this(logger, loadProperties(configFilename, logger));
+        this(logger, loadProperties(configFilename, logger::severe));
     }
 
     public Config(Logger logger, Properties properties) {
+        this(logger, properties, true);
+    }
 
-        // logger settings
-        Level logLevel = Level.parse(properties.getProperty("LogLevel", "ALL"));
-        String logFormat = properties.getProperty("LogFormat", "[%1$tT.%1$tL] [%2$-7s] %3$s%n");
-        Main.setLoggerLevelAndFormat(logger, logLevel, logFormat);
+    /**
+     * @param logger      - receives the warnings about the settings.
+     * @param properties  - the settings.
+     * @param applyLogger - true to apply the logger settings once all the settings are read, false to leave the
+     *                    logger as it is (see applyLoggerSettings).
+     * @throws RuntimeException - if a setting is malformed (e.g. NumberFormatException, IllegalArgumentException).
+     */
+    Config(Logger logger, Properties properties, boolean applyLogger) {
+
+        // logger settings (applied once all the settings are read)
+        logLevel = Level.parse(properties.getProperty("LogLevel", "ALL"));
+        logFormat = properties.getProperty("LogFormat", "[%1$tT.%1$tL] [%2$-7s] %3$s%n");
 
         // for debugging
         randomSpinMin = Long.parseLong(properties.getProperty("RandomSpinMin", "0"));
@@ -196,7 +346,16 @@ public class Config {
         // cards settings
         featureSize = Integer.parseInt(properties.getProperty("FeatureSize", "3"));
         featureCount = Integer.parseInt(properties.getProperty("FeatureCount", "4"));
-        deckSize = (int) Math.pow(featureSize, featureCount);
+        if (featureSize < 3 || featureSize > 36 || featureCount < 1)
+            logger.severe("invalid card features: size: " + featureSize + " count: " + featureCount);
+        long cards = 1;
+        for (int i = 0; i < featureCount && cards <= Integer.MAX_VALUE; ++i)
+            cards *= featureSize;
+        if (cards > Integer.MAX_VALUE)
+            logger.severe("deck too large: " + featureSize + "^" + featureCount + " cards");
+        deckSize = (int) Math.min(cards, Integer.MAX_VALUE);
+
+        parallelSearchThreshold = Integer.parseInt(properties.getProperty("ParallelSearchThreshold", "128"));
 
         // gameplay settings
         humanPlayers = Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
@@ -204,11 +363,35 @@ public class Config {
         players = humanPlayers + computerPlayers;
 
         hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
+        hintSink = properties.getProperty("HintSink", "Console").trim().toLowerCase(Locale.ROOT);
         turnTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutSeconds", "60")) * 1000.0);
         turnTimeoutWarningMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutWarningSeconds", "60")) * 1000.0);
+        countdownRefreshMillis = (long) (Double.parseDouble(properties.getProperty("CountdownRefreshSeconds", "0.01")) * 1000.0);
+        refillSets = Integer.parseInt(properties.getProperty("RefillSets", "0"));
+        reshuffleKeyPolicy = ReshuffleKeyPolicy.valueOf(properties.getProperty("ReshuffleKeyPolicy", "Drop").trim().toUpperCase(Locale.ROOT));
+        noSetPolicy = NoSetPolicy.valueOf(properties.getProperty("NoSetPolicy", "None").trim().toUpperCase(Locale.ROOT));
+        claimWindowMillis = (long) (Double.parseDouble(properties.getProperty("ClaimWindowSeconds", "0")) * 1000.0);
         pointFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PointFreezeSeconds", "1")) * 1000.0);
         penaltyFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PenaltyFreezeSeconds", "3")) * 1000.0);
         tableDelayMillis = (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
+        metricsDumpMillis = (long) (Double.parseDouble(properties.getProperty("MetricsDumpSeconds", "0")) * 1000.0);
+        contentionSampleMillis = (long) (Double.parseDouble(properties.getProperty("ContentionSampleSeconds", "0")) * 1000.0);
+        monitorPort = Integer.parseInt(properties.getProperty("MonitorPort", "-1"));
+        serverPort = Integer.parseInt(properties.getProperty("ServerPort", "-1"));
+        networkTickMillis = (long) (Double.parseDouble(properties.getProperty("NetworkTickSeconds", "0.02")) * 1000.0);
+        networkBacklogBytes = Long.parseLong(properties.getProperty("NetworkBacklogBytes", "1048576"));
+        checkpointMillis = (long) (Double.parseDouble(properties.getProperty("CheckpointIntervalSeconds", "0")) * 1000.0);
+        checkpointDir = properties.getProperty("CheckpointDir", "checkpoints");
+        statsDir = properties.getProperty("StatsDir", "");
+        virtualTime = Boolean.parseBoolean(properties.getProperty("VirtualTime", "False"));
+        tournamentGames = Integer.parseInt(properties.getProperty("TournamentGames", "1000"));
+        tournamentWorkers = Integer.parseInt(properties.getProperty("TournamentWorkers", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        tournamentBacklog = Integer.parseInt(properties.getProperty("TournamentBacklog", "16"));
+        tournamentGameTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TournamentGameTimeoutSeconds", "300")) * 1000.0);
+        simulationGames = Integer.parseInt(properties.getProperty("SimulationGames", "100000"));
+        simulationSearchMillis = (long) (Double.parseDouble(properties.getProperty("SimulationSearchSeconds", "3")) * 1000.0);
+        simulationMistakeRate = Double.parseDouble(properties.getProperty("SimulationMistakeRate", "0.1"));
+        tournamentEntrants = properties.getProperty("TournamentEntrants", "Random 1:random, Random 2:random, Smart 1:smart, Smart 2:smart").split(",");
         endGamePauseMillies = (long) (Double.parseDouble(properties.getProperty("EndGamePauseSeconds", "5")) * 1000.0);
 
         // ui settings
@@ -219,6 +402,10 @@ public class Config {
         rows = Integer.parseInt(properties.getProperty("Rows", "3"));
         columns = Integer.parseInt(properties.getProperty("Columns", "4"));
         tableSize = rows * columns;
+        int requestedRegions = Integer.parseInt(properties.getProperty("Regions", "1"));
+        regions = Math.max(1, Math.min(requestedRegions, Math.min(tableSize, 64)));
+        if (regions != requestedRegions)
+            logger.severe("warning: regions (" + requestedRegions + ") must be between 1 and " + Math.min(tableSize, 64) + ", using " + regions + ".");
         cellWidth = Integer.parseInt(properties.getProperty("CellWidth", "258"));
         cellHeight = Integer.parseInt(properties.getProperty("CellHeight", "167"));
         playerCellWidth = Integer.parseInt(properties.getProperty("PlayerCellWidth", "300"));
@@ -239,9 +426,60 @@ public class Config {
                     playerKeys[i][j] = Integer.parseInt(codes[j]);
             }
         }
+
+        if (applyLogger) applyLoggerSettings(logger);
+    }
+
+    /**
+     * Sets the level and format of a logger to the ones of this configuration.
+     *
+     * @param logger - the logger.
+     */
+    public void applyLoggerSettings(Logger logger) {
+        Main.setLoggerLevelAndFormat(logger, logLevel, logFormat);
     }
 
     public int[] playerKeys(int player) {
         return playerKeys[player];
     }
+
+    /**
+     * Compares the settings that can only be applied by restarting the game (e.g. the deck, the players and the
+     * table grid) with the ones of another configuration. All the other settings (timeouts, freezes, delays, hints
+     * and logging) can be applied to a running game.
+     *
+     * @param other - the configuration to compare with.
+     * @return - the names of the restart-only settings that differ.
+     */
+    public List<String> restartOnlyChanges(Config other) {
+        List<String> changes = new LinkedList<>();
+        if (randomSpinMin != other.randomSpinMin || randomSpinMax != other.randomSpinMax) changes.add("RandomSpin");
+        if (featureSize != other.featureSize) changes.add("FeatureSize");
+        if (featureCount != other.featureCount) changes.add("FeatureCount");
+        if (parallelSearchThreshold != other.parallelSearchThreshold) changes.add("ParallelSearchThreshold");
+        if (humanPlayers != other.humanPlayers) changes.add("HumanPlayers");
+        if (computerPlayers != other.computerPlayers) changes.add("ComputerPlayers");
+        if (!Arrays.equals(playerNames, other.playerNames)) changes.add("PlayerNames");
+        if (!Arrays.deepEquals(playerKeys, other.playerKeys)) changes.add("PlayerKeys");
+        if (rows != other.rows) changes.add("Rows");
+        if (columns != other.columns) changes.add("Columns");
+        if (regions != other.regions) changes.add("Regions");
+        if (cellWidth != other.cellWidth || cellHeight != other.cellHeight) changes.add("CellSize");
+        if (playerCellWidth != other.playerCellWidth || playerCellHeight != other.playerCellHeight)
+            changes.add("PlayerCellSize");
+        if (fontSize != other.fontSize) changes.add("FontSize");
+        if (countdownRefreshMillis != other.countdownRefreshMillis) changes.add("CountdownRefreshSeconds");
+        if (metricsDumpMillis != other.metricsDumpMillis) changes.add("MetricsDumpSeconds");
+        if (contentionSampleMillis != other.contentionSampleMillis) changes.add("ContentionSampleSeconds");
+        if (monitorPort != other.monitorPort) changes.add("MonitorPort");
+        if (serverPort != other.serverPort) changes.add("ServerPort");
+        if (networkTickMillis != other.networkTickMillis) changes.add("NetworkTickSeconds");
+        if (networkBacklogBytes != other.networkBacklogBytes) changes.add("NetworkBacklogBytes");
+        if (checkpointMillis != other.checkpointMillis) changes.add("CheckpointIntervalSeconds");
+        if (!checkpointDir.equals(other.checkpointDir)) changes.add("CheckpointDir");
+        if (!statsDir.equals(other.statsDir)) changes.add("StatsDir");
+        if (virtualTime != other.virtualTime) changes.add("VirtualTime");
+        if (!hintSink.equals(other.hintSink)) changes.add("HintSink");
+        return changes;
+    }
 }
@@ -0,0 +1,92 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the configuration file and applies its runtime-safe settings to the running game.
+ * A reloaded configuration replaces the current one as a whole; if any restart-only setting changed, the whole
+ * reload is rejected and the current configuration stays in place.
+ */
+public class ConfigWatcher implements Runnable {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * The configuration file being watched.
+     */
+    private final Path file;
+
+    /**
+     * True iff the watcher should be terminated.
+     */
+    private volatile boolean terminate;
+
+    public ConfigWatcher(Env env, Path file) {
+        this.env = env;
+        this.file = file.toAbsolutePath();
+    }
+
+    /**
+     * The watcher thread starts here (main loop for the watcher thread).
+     */
+    @Override
+    public void run() {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            file.getParent().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (!terminate) {
+                WatchKey key = watchService.poll(1, TimeUnit.SECONDS);
+                if (key == null) continue;
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents())
+                    if (file.getFileName().equals(event.context())) changed = true;
+                if (changed) reload();
+                if (!key.reset()) break;
+            }
+        } catch (IOException e) {
+            env.logger.severe("cannot watch configuration file " + file + ": " + e.getMessage());
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Reads the configuration file and replaces the current configuration with it, unless a restart-only
+     * setting changed or a setting is malformed (e.g. a typo, or a file read while it is half written). The logger
+     * settings of the new configuration are applied only once it replaces the current one.
+     */
+    public void reload() {
+        Config current = env.config;
+        Config reloaded;
+        try {
+            reloaded = new Config(env.logger, Config.loadProperties(file.toString(), env.logger::severe), false);
+        } catch (RuntimeException e) {
+            env.logger.severe("configuration reload rejected, malformed setting in " + file + ": " + e);
+            return;
+        }
+        List<String> rejected = current.restartOnlyChanges(reloaded);
+        if (!rejected.isEmpty()) {
+            env.logger.severe("configuration reload rejected, restart-only settings changed: " + rejected);
+            return;
+        }
+        env.config = reloaded;
+        reloaded.applyLoggerSettings(env.logger);
+        env.logger.severe("configuration reloaded from " + file);
+    }
+
+    /**
+     * Called when the watcher should be terminated.
+     */
+    public void terminate() {
+        terminate = true;
+    }
+}
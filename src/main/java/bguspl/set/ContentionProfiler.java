@@ -0,0 +1,179 @@
+package bguspl.set;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Samples the states of the game threads and attributes the time they spend blocked to named locks.
+ * Monitors (synchronized blocks) are recognized by the lock reported by the ThreadMXBean, reentrant locks by their
+ * queue of waiting threads. The per-thread blocked and waited times of the ThreadMXBean are reported as well.
+ */
+public class ContentionProfiler implements Runnable {
+
+    /**
+     * The threads to sample.
+     */
+    private final Supplier<? extends Collection<Thread>> threads;
+
+    /**
+     * The number of milliseconds between two samples.
+     */
+    private final long sampleMillis;
+
+    private final ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The names of the registered monitors, by their identity hash code.
+     */
+    private final Map<Integer, String> monitors = new ConcurrentHashMap<>();
+
+    /**
+     * The registered reentrant locks and their names.
+     */
+    private final List<ReentrantLock> locks = new CopyOnWriteArrayList<>();
+    private final List<String> lockNames = new CopyOnWriteArrayList<>();
+
+    /**
+     * The samples per lock: how many times a thread was found blocked on it, or waiting on it (Object.wait).
+     * Only accessed by the sampler thread until it terminates.
+     */
+    private final Map<String, long[]> lockSamples = new HashMap<>();
+    private static final int BLOCKED = 0;
+    private static final int WAITING = 1;
+
+    /**
+     * The states the threads were found in, per thread name, and the thread's last known blocked and waited
+     * times (in milliseconds) and counts: {first blocked time, first waited time, blocked time, blocked count,
+     * waited time, waited count}. Only accessed by the sampler thread until it terminates.
+     */
+    private final Map<String, long[]> threadStates = new LinkedHashMap<>();
+    private final Map<String, long[]> threadTimes = new LinkedHashMap<>();
+
+    private long samples;
+
+    /**
+     * True iff the profiler should be terminated.
+     */
+    private volatile boolean terminate;
+
+    /**
+     * @param threads      - supplies the threads to sample (may change while sampling).
+     * @param sampleMillis - the number of milliseconds between two samples.
+     */
+    public ContentionProfiler(Supplier<? extends Collection<Thread>> threads, long sampleMillis) {
+        this.threads = threads;
+        this.sampleMillis = Math.max(1, sampleMillis);
+    }
+
+    /**
+     * Gives a lock a name in the report.
+     *
+     * @param lock - the monitor object or ReentrantLock.
+     * @param name - the name of the lock.
+     */
+    public void register(Object lock, String name) {
+        if (lock instanceof ReentrantLock) {
+            lockNames.add(name);
+            locks.add((ReentrantLock) lock);
+        } else monitors.put(System.identityHashCode(lock), name);
+    }
+
+    /**
+     * The profiler thread starts here (samples the threads until terminated).
+     */
+    @Override
+    public void run() {
+        if (mxBean.isThreadContentionMonitoringSupported()) mxBean.setThreadContentionMonitoringEnabled(true);
+        while (!terminate) {
+            sample();
+            try {
+                Thread.sleep(sampleMillis);
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    private void sample() {
+        ++samples;
+        boolean times = mxBean.isThreadContentionMonitoringEnabled();
+        for (Thread thread : threads.get()) {
+            ThreadInfo info = mxBean.getThreadInfo(thread.getId());
+            if (info == null) continue; // not started yet or terminated
+
+            String name = thread.getName();
+            threadStates.computeIfAbsent(name, k -> new long[Thread.State.values().length])[info.getThreadState().ordinal()]++;
+            if (times) {
+                long[] time = threadTimes.get(name);
+                if (time == null) threadTimes.put(name, time = new long[]{info.getBlockedTime(), info.getWaitedTime(), 0, 0, 0, 0});
+                time[2] = info.getBlockedTime();
+                time[3] = info.getBlockedCount();
+                time[4] = info.getWaitedTime();
+                time[5] = info.getWaitedCount();
+            }
+
+            LockInfo lock = info.getLockInfo();
+            if (lock == null) continue;
+            String monitor = monitors.get(lock.getIdentityHashCode());
+            if (info.getThreadState() == Thread.State.BLOCKED) {
+                count(monitor != null ? monitor : lock.toString(), BLOCKED);
+            } else if (monitor != null) {
+                count(monitor, WAITING);
+            } else {
+                for (int i = 0; i < locks.size(); ++i)
+                    if (locks.get(i).hasQueuedThread(thread)) count(lockNames.get(i), BLOCKED);
+            }
+        }
+    }
+
+    private void count(String lock, int kind) {
+        lockSamples.computeIfAbsent(lock, k -> new long[2])[kind]++;
+    }
+
+    /**
+     * Called when the profiler should be terminated (the report is only complete once its thread has terminated).
+     */
+    public void terminate() {
+        terminate = true;
+    }
+
+    /**
+     * @return - the contention report: the locks sorted by the estimated time threads spent blocked on them, and the
+     * state distribution and blocked/waited times of each thread.
+     */
+    public String report() {
+        String nl = System.lineSeparator();
+        StringBuilder report = new StringBuilder("lock contention (").append(samples).append(" samples every ")
+                .append(sampleMillis).append("ms):").append(nl);
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(lockSamples.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue()[BLOCKED], a.getValue()[BLOCKED]));
+        for (Map.Entry<String, long[]> entry : entries)
+            report.append("  ").append(entry.getKey())
+                    .append(": blocked ~").append(entry.getValue()[BLOCKED] * sampleMillis).append("ms")
+                    .append(" (").append(entry.getValue()[BLOCKED]).append(" samples)")
+                    .append(", waiting ~").append(entry.getValue()[WAITING] * sampleMillis).append("ms").append(nl);
+        Thread.State[] states = Thread.State.values();
+        threadStates.forEach((name, counts) -> {
+            report.append("  thread ").append(name).append(':');
+            for (Thread.State state : states)
+                if (counts[state.ordinal()] > 0)
+                    report.append(' ').append(state).append(' ').append(100 * counts[state.ordinal()] / samples).append('%');
+            long[] time = threadTimes.get(name);
+            if (time != null)
+                report.append(", blocked ").append(time[2] - time[0]).append("ms (").append(time[3]).append(" times)")
+                        .append(", waited ").append(time[4] - time[1]).append("ms (").append(time[5]).append(" times)");
+            report.append(nl);
+        });
+        return report.toString();
+    }
+}
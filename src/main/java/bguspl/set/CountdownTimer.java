@@ -0,0 +1,99 @@
+package bguspl.set;
+
+/**
+ * Renders the turn countdown on the user interface at a fixed display rate, independently of the game logic.
+ * The game only publishes the deadline (and the warning threshold) whenever they change.
+ */
+public class CountdownTimer implements Runnable {
+
+    /**
+     * The user interface the countdown is rendered on.
+     */
+    private final UserInterface ui;
+
+    /**
+     * The source of time of the game.
+     */
+    private final Clock clock;
+
+    /**
+     * The number of milliseconds between two consecutive renders.
+     */
+    private final long refreshMillis;
+
+    /**
+     * The time (clock.millis) in which the countdown reaches zero.
+     */
+    private volatile long deadline = Long.MAX_VALUE;
+
+    /**
+     * The number of milliseconds before the deadline in which the countdown warning is displayed.
+     */
+    private volatile long warningMillis;
+
+    /**
+     * True iff the timer should be terminated.
+     */
+    private volatile boolean terminate;
+
+    /**
+     * The last whole second rendered outside the warning window (-1 if none).
+     */
+    private long lastSecond = -1;
+
+    public CountdownTimer(UserInterface ui, Clock clock, long refreshMillis) {
+        this.ui = ui;
+        this.clock = clock;
+        this.refreshMillis = Math.max(1, refreshMillis);
+    }
+
+    /**
+     * Publishes a new deadline for the countdown.
+     *
+     * @param deadline      - the time (clock.millis) in which the countdown reaches zero.
+     * @param warningMillis - the number of milliseconds before the deadline in which the warning is displayed.
+     */
+    public void setDeadline(long deadline, long warningMillis) {
+        this.warningMillis = warningMillis;
+        this.deadline = deadline;
+    }
+
+    /**
+     * The timer thread starts here (renders the countdown until terminated).
+     */
+    @Override
+    public void run() {
+        while (!terminate) {
+            render();
+            try {
+                clock.sleep(refreshMillis);
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    /**
+     * Renders the remaining time. Outside the warning window the display only changes once a second, so the user
+     * interface is only updated when the displayed second changes.
+     */
+    private void render() {
+        long deadline = this.deadline;
+        if (deadline == Long.MAX_VALUE) return;
+
+        long remaining = Math.max(0, deadline - clock.millis());
+        boolean warn = remaining <= warningMillis;
+        if (warn) {
+            lastSecond = -1;
+            ui.setCountdown(remaining, true);
+        } else if (remaining / 1000 != lastSecond) {
+            lastSecond = remaining / 1000;
+            ui.setCountdown(remaining, false);
+        }
+    }
+
+    /**
+     * Called when the timer should be terminated.
+     */
+    public void terminate() {
+        terminate = true;
+    }
+}
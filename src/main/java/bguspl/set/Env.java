@@ -5,14 +5,36 @@ import java.util.logging.Logger;
 public class Env {
 
     public final Logger logger;
-    public final Config config;
+
+    /**
+     * The current configuration snapshot (replaced as a whole when the configuration file is reloaded).
+     * Read it once into a local variable when several settings must come from the same snapshot.
+     */
+    public volatile Config config;
+
     public final UserInterface ui;
     public final Util util;
+    public final Metrics metrics;
+
+    /**
+     * The source of time of the game (all the game's reads of the time and waits for time to pass go through it).
+     */
+    public final Clock clock;
 
     public Env(Logger logger, Config config, UserInterface ui, Util util) {
+        this(logger, config, ui, util, new Metrics());
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, Metrics metrics) {
+        this(logger, config, ui, util, metrics, new RealClock());
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, Metrics metrics, Clock clock) {
         this.logger = logger;
         this.config = config;
         this.ui = ui;
         this.util = util;
+        this.metrics = metrics;
+        this.clock = clock;
     }
 }
@@ -0,0 +1,146 @@
+package bguspl.set;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of non-negative long values (e.g. latencies in nanoseconds) with a fixed relative precision,
+ * in the style of an HDR histogram: every power of two is split into SUB_BUCKETS linear buckets, so a recorded value
+ * is off by at most 1/SUB_BUCKETS of itself. Recording allocates nothing.
+ */
+public class Histogram {
+
+    /**
+     * The number of linear buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 16;
+    private static final int SUB_BITS = 4; // log2(SUB_BUCKETS)
+
+    /**
+     * Values below this are recorded exactly.
+     */
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucket(long value) {
+        if (value < LINEAR) return (int) Math.max(value, 0);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BITS)); // between SUB_BUCKETS and 2 * SUB_BUCKETS - 1
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB_BUCKETS + mantissa - SUB_BUCKETS;
+    }
+
+    /**
+     * @return - the highest value that is recorded in the given bucket.
+     */
+    static long bucketHighest(int bucket) {
+        if (bucket < LINEAR) return bucket;
+        int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+        long mantissa = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value - the value to record (negative values are recorded as 0).
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) ;
+    }
+
+    /**
+     * @return - a consistent-enough copy of the recorded values (values recorded concurrently may be missed).
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += copy[i] = counts.get(i);
+        return new Snapshot(copy, total, sum.sum(), max.get());
+    }
+
+    /**
+     * @return - a snapshot of no values.
+     */
+    public static Snapshot empty() {
+        return new Snapshot(new long[BUCKETS], 0, 0, 0);
+    }
+
+    /**
+     * @return - the number of buckets of a histogram.
+     */
+    static int buckets() {
+        return BUCKETS;
+    }
+
+    /**
+     * An immutable copy of a histogram.
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        public final long count;
+        public final long sum;
+        public final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile - the percentile (between 0 and 100).
+         * @return - the value below which the given percentile of the recorded values lie.
+         */
+        public long percentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++)
+                if ((seen += counts[i]) >= rank) return Math.min(bucketHighest(i), max);
+            return max;
+        }
+
+        /**
+         * @return - the number of values recorded in each bucket (see Histogram.bucketHighest).
+         */
+        public long[] counts() {
+            return counts.clone();
+        }
+
+        /**
+         * @param other - another snapshot.
+         * @return - a snapshot of the values of both snapshots.
+         */
+        public Snapshot plus(Snapshot other) {
+            long[] sums = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++)
+                sums[i] = counts[i] + other.counts[i];
+            return new Snapshot(sums, count + other.count, sum + other.sum, Math.max(max, other.max));
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + (long) mean() + " p50=" + percentile(50) + " p90=" + percentile(90)
+                    + " p99=" + percentile(99) + " max=" + max;
+        }
+    }
+}
@@ -1,15 +1,25 @@
 package bguspl.set;
 
+import bguspl.set.ex.Checkpointer;
 import bguspl.set.ex.Dealer;
 import bguspl.set.ex.Player;
 import bguspl.set.ex.Table;
+import bguspl.set.net.GameServer;
+import bguspl.set.net.NetworkUserInterface;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.*;
 
 /**
@@ -21,6 +31,9 @@ public class Main {
     private static Thread mainThread;
 
     private static boolean xButtonPressed = false;
+
+    //just to make our log file nicer :)
+    private static final String startTime = new SimpleDateFormat("M-d_HH-mm-ss").format(Calendar.getInstance().getTime());
     private static Logger logger;
 
     public static void xButtonPressed() throws InterruptedException {
@@ -33,31 +46,79 @@ public class Main {
     /**
      * The game's main function. Creates all data structures and initializes the threads.
      *
-     * @param args - unused.
+     * @param args - "--recover" to resume the game saved in config.checkpointDir (e.g. after a crash).
      */
     public static void main(String[] args) {
 
         mainThread = Thread.currentThread();
+        StartupProfile profile = new StartupProfile();
+
+        // read the configuration file while the log file is being created
+        List<String> configWarnings = Collections.synchronizedList(new LinkedList<>());
+        CompletableFuture<Properties> properties = CompletableFuture.supplyAsync(() -> {
+            long begin = profile.begin();
+            Properties loaded = Config.loadProperties("config.properties", configWarnings::add);
+            profile.end("config read", begin);
+            return loaded;
+        });
 
         // create the game environment objects
-        logger = initLogger();
+        long begin = profile.begin();
+        logger = initLogger("");
+        profile.end("logger", begin);
         ThreadLogger.logStart(logger, Thread.currentThread().getName());
-        Config config = new Config(logger, "config.properties");
+        begin = profile.begin();
+        Config config = new Config(logger, properties.join());
+        configWarnings.forEach(logger::severe);
+        profile.end("config", begin);
         Util util = new UtilImpl(config);
 
+        // the card images are decoded in the background while the user interface is built and the game starts
+        CardImages cardImages = new CardImages(config);
+        cardImages.loaded().thenRun(() -> {
+            profile.mark("card images");
+            logger.info("startup: " + profile.report());
+        });
+
         Player[] players = new Player[config.players];
         UserInterface ui = null;
+        begin = profile.begin();
         try {
-            ui = new UserInterfaceSwing(logger, config, players);
+            ui = new UserInterfaceSwing(logger, config, players, cardImages);
         } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            cardImages.cancel();
             logger.severe("error creating swing user interface: " + e.getMessage());
             logger.severe("will try to run without user interface");
             if (config.humanPlayers > 0)
                 logger.severe("warning: running with human players with no user interface");
         }
-        ui = new UserInterfaceDecorator(logger, util, ui);
-
-        Env env = new Env(logger, config, ui, util);
+        profile.end("user interface", begin);
+        Metrics metrics = new Metrics();
+
+        // stream the game to remote players and spectators
+        GameServer server = null;
+        NetworkUserInterface networkUi = null;
+        if (config.serverPort >= 0) {
+            try {
+                server = new GameServer(config, config.serverPort, players, metrics, logger);
+                ui = networkUi = new NetworkUserInterface(server, ui, config.players, metrics);
+            } catch (IOException e) {
+                logger.severe("cannot start the game server on port " + config.serverPort + ": " + e.getMessage());
+            }
+        }
+        ui = new UserInterfaceDecorator(logger, util, ui, metrics);
+
+        Env env = new Env(logger, config, ui, util, metrics, config.virtualTime ? new VirtualClock() : new RealClock());
+        if (config.metricsDumpMillis > 0)
+            metrics.startDumping(Paths.get("./logs/metrics-" + startTime + ".txt"), config.metricsDumpMillis, logger);
+
+        // apply changes of the configuration file to the running game
+        ConfigWatcher configWatcher = new ConfigWatcher(env, Paths.get("config.properties"));
+        if (Files.exists(Paths.get("config.properties"))) {
+            ThreadLogger watcherThread = new ThreadLogger(configWatcher, "config-watcher", logger);
+            watcherThread.setDaemon(true);
+            watcherThread.startWithLog();
+        }
 
         // create the game entities
         Table table = new Table(env);
@@ -65,33 +126,98 @@ public class Main {
         for (int i = 0; i < players.length; i++)
             players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers);
 
+        // resume the game saved before a crash
+        if (Arrays.asList(args).contains("--recover")) {
+            try {
+                Checkpointer.State state = Checkpointer.recover(config, Paths.get(config.checkpointDir), Checkpointer.GAME);
+                if (state == null) {
+                    logger.severe("recovery: no checkpoint in " + config.checkpointDir + ", starting a new game");
+                } else {
+                    dealer.restore(state);
+                    logger.info("recovery: resumed " + state);
+                }
+            } catch (IOException e) {
+                logger.severe("recovery: " + e.getMessage() + ", starting a new game");
+            }
+        }
+
+        // export the live game state on localhost
+        MonitorServer monitor = null;
+        if (config.monitorPort >= 0) {
+            try {
+                monitor = new MonitorServer(config.monitorPort, metrics, logger);
+                monitor.register("main", dealer);
+                monitor.start();
+            } catch (IOException e) {
+                logger.severe("cannot start the monitoring endpoint on port " + config.monitorPort + ": " + e.getMessage());
+                monitor = null;
+            }
+        }
+
+        // keep the players' statistics across games
+        StatsStore stats = null;
+        ThreadLogger statsThread = null;
+        if (!config.statsDir.isEmpty()) {
+            try {
+                stats = new StatsStore(Paths.get(config.statsDir), metrics, logger);
+                statsThread = new ThreadLogger(stats, "stats-writer", logger);
+                statsThread.startWithLog();
+            } catch (IOException e) {
+                logger.severe("cannot open the statistics store in " + config.statsDir + ": " + e.getMessage());
+                stats = null;
+            }
+        }
+
+        if (server != null) {
+            networkUi.setGame(dealer::snapshot);
+            ThreadLogger serverThread = new ThreadLogger(server, "game-server", logger);
+            serverThread.setDaemon(true);
+            serverThread.startWithLog();
+        }
+
         // start the dealer thread
         ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger);
         dealerThread.startWithLog();
+        profile.mark("dealer start");
+        logger.info("startup: " + profile.report());
 
         try {
             // shutdown stuff
             dealerThread.joinWithLog();
-            if (!xButtonPressed && config.endGamePauseMillies > 0) Thread.sleep(config.endGamePauseMillies);
+            if (stats != null && dealer.finished()) stats.record(dealer.results());
+            if (!xButtonPressed && env.config.endGamePauseMillies > 0) env.clock.sleep(env.config.endGamePauseMillies);
         } catch (InterruptedException ignored) {
         } finally {
+            configWatcher.terminate();
+            if (monitor != null) monitor.stop();
+            metrics.stopDumping();
+            if (stats != null) {
+                stats.terminate();
+                try {
+                    statsThread.joinWithLog();
+                } catch (InterruptedException ignored) {}
+                logger.info("leaderboard: " + stats.top(10));
+            }
             logger.severe("thanks for playing... it was fun!");
             System.out.println("Thanks for playing... it was fun!");
             ThreadLogger.logStop(logger, Thread.currentThread().getName());
             if (!xButtonPressed) env.ui.dispose();
+            if (server != null) server.terminate();
             for (Handler h : logger.getHandlers()) h.flush();
         }
     }
 
-    private static Logger initLogger() {
+    /**
+     * @param prefix - the prefix of the log file name.
+     * @return - a logger writing to a new file in ./logs.
+     */
+    public static Logger initLogger(String prefix) {
 
-        //just to make our log file nicer :)
-        SimpleDateFormat format = new SimpleDateFormat("M-d_HH-mm-ss");
         FileHandler handler;
         try {
             //noinspection ResultOfMethodCallIgnored
             new File("./logs/").mkdirs();
-            handler = new FileHandler("./logs/" + format.format(Calendar.getInstance().getTime()) + ".log");
+            handler = new FileHandler("./logs/" + prefix + startTime + ".log");
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,127 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * The game's metrics registry: named counters and latency histograms (in nanoseconds).
+ * Callers on hot paths should look their metrics up once and keep them in a field.
+ */
+public class Metrics {
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Writes the periodic dumps (null if not dumping).
+     */
+    private ScheduledExecutorService dumper;
+    private Path dumpFile;
+    private Logger dumpLogger;
+
+    /**
+     * @param name - the name of the counter.
+     * @return - the counter with the given name (created if needed).
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * @param name - the name of the histogram.
+     * @return - the histogram with the given name (created if needed).
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /**
+     * @return - a copy of all the metrics.
+     */
+    public Snapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.sum()));
+        Map<String, Histogram.Snapshot> histogramValues = new TreeMap<>();
+        histograms.forEach((name, histogram) -> histogramValues.put(name, histogram.snapshot()));
+        return new Snapshot(counterValues, histogramValues);
+    }
+
+    /**
+     * Starts appending a snapshot of all the metrics to a file periodically.
+     *
+     * @param file         - the file to append to.
+     * @param periodMillis - the number of milliseconds between two dumps.
+     * @param logger       - the logger to report failures to.
+     */
+    public synchronized void startDumping(Path file, long periodMillis, Logger logger) {
+        if (dumper != null) return;
+        dumpFile = file;
+        dumpLogger = logger;
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(file, logger), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic dumps, writing one last dump.
+     */
+    public synchronized void stopDumping() {
+        if (dumper == null) return;
+        dumper.shutdown();
+        try {
+            dumper.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {}
+        dumper = null;
+        dump(dumpFile, dumpLogger);
+    }
+
+    private void dump(Path file, Logger logger) {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            out.println("# " + new Date());
+            out.print(snapshot());
+        } catch (IOException e) {
+            logger.severe("cannot write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * An immutable copy of all the metrics.
+     */
+    public static class Snapshot {
+
+        public final Map<String, Long> counters;
+        public final Map<String, Histogram.Snapshot> histograms;
+
+        Snapshot(Map<String, Long> counters, Map<String, Histogram.Snapshot> histograms) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            counters.forEach((name, value) -> text.append(name).append(' ').append(value).append(System.lineSeparator()));
+            histograms.forEach((name, value) -> text.append(name).append(' ').append(value).append(System.lineSeparator()));
+            return text.toString();
+        }
+    }
+}
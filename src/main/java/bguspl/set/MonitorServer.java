@@ -0,0 +1,170 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * A small http server, bound to localhost, exporting the live state of the games and the game metrics.
+ * GET /metrics returns the Prometheus text format, GET /state returns a human readable summary.
+ */
+public class MonitorServer {
+
+    private final HttpServer server;
+    private final Metrics metrics;
+    private final Logger logger;
+
+    /**
+     * The monitored games, by name.
+     */
+    private final Map<String, Dealer> games = new ConcurrentSkipListMap<>();
+
+    /**
+     * Binds the server (it does not accept requests until started).
+     *
+     * @param port    - the localhost port to bind (0 for any free port).
+     * @param metrics - the metrics registry to export.
+     * @param logger  - the logger to report failures to.
+     * @throws IOException - if the port cannot be bound.
+     */
+    public MonitorServer(int port, Metrics metrics, Logger logger) throws IOException {
+        this.metrics = metrics;
+        this.logger = logger;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> respond(exchange, "text/plain; version=0.0.4", this::prometheus));
+        server.createContext("/state", exchange -> respond(exchange, "text/plain", this::state));
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "monitor");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public void start() {
+        server.start();
+        logger.info("monitoring endpoint listening on http://" + server.getAddress().getHostString() + ":" + port() + "/metrics");
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * @return - the port the server is bound to.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Adds a game to the monitored games.
+     *
+     * @param name   - the name of the game (used as the game label).
+     * @param dealer - the dealer of the game.
+     */
+    public void register(String name, Dealer dealer) {
+        games.put(name, dealer);
+    }
+
+    public void unregister(String name) {
+        games.remove(name);
+    }
+
+    private void respond(HttpExchange exchange, String contentType, Supplier<String> body) throws IOException {
+        try {
+            byte[] bytes = body.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (RuntimeException e) {
+            logger.severe("monitoring request failed: " + e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String state() {
+        StringBuilder text = new StringBuilder();
+        games.forEach((name, dealer) -> {
+            text.append("game ").append(name).append('\n')
+                    .append("  deck size: ").append(dealer.deckSize()).append('\n')
+                    .append("  cards on table: ").append(dealer.cardsOnTable()).append('\n')
+                    .append("  sets on table: ").append(dealer.setsOnTable()).append('\n')
+                    .append("  players frozen: ").append(dealer.frozenPlayers()).append('\n')
+                    .append("  pending claims: ").append(dealer.pendingClaims()).append('\n')
+                    .append("  countdown: ").append(dealer.countdownMillis()).append("ms\n");
+            for (Thread thread : dealer.threads())
+                text.append("  thread ").append(thread.getName()).append(": ").append(thread.getState()).append('\n');
+        });
+        text.append(metrics.snapshot().toString().replace(System.lineSeparator(), "\n"));
+        return text.toString();
+    }
+
+    private String prometheus() {
+        StringBuilder text = new StringBuilder();
+        gauge(text, "set_deck_size", "Cards left in the deck.", Dealer::deckSize);
+        gauge(text, "set_cards_on_table", "Cards on the table.", Dealer::cardsOnTable);
+        gauge(text, "set_sets_on_table", "Legal sets among the cards on the table.", Dealer::setsOnTable);
+        gauge(text, "set_players_frozen", "Players frozen after a point or a penalty.", Dealer::frozenPlayers);
+        gauge(text, "set_claim_queue_depth", "Claims waiting to be resolved.", Dealer::pendingClaims);
+        gauge(text, "set_countdown_milliseconds", "Milliseconds until the reshuffle deadline.", Dealer::countdownMillis);
+
+        text.append("# HELP set_thread_state State of the game threads.\n# TYPE set_thread_state gauge\n");
+        games.forEach((name, dealer) -> {
+            for (Thread thread : dealer.threads())
+                for (Thread.State state : Thread.State.values())
+                    text.append("set_thread_state{game=\"").append(escape(name)).append("\",thread=\"")
+                            .append(escape(thread.getName())).append("\",state=\"").append(state).append("\"} ")
+                            .append(thread.getState() == state ? 1 : 0).append('\n');
+        });
+
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        snapshot.counters.forEach((name, value) -> {
+            String metric = "set_" + sanitize(name) + "_total";
+            text.append("# TYPE ").append(metric).append(" counter\n").append(metric).append(' ').append(value).append('\n');
+        });
+        snapshot.histograms.forEach((name, histogram) -> {
+            String metric = "set_" + sanitize(name) + "_seconds";
+            text.append("# TYPE ").append(metric).append(" summary\n");
+            for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999})
+                text.append(metric).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(histogram.percentile(quantile * 100) / 1e9).append('\n');
+            text.append(metric).append("_sum ").append(histogram.sum / 1e9).append('\n');
+            text.append(metric).append("_count ").append(histogram.count).append('\n');
+        });
+        return text.toString();
+    }
+
+    private interface GameGauge {
+        long value(Dealer dealer);
+    }
+
+    private void gauge(StringBuilder text, String metric, String help, GameGauge gauge) {
+        text.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(metric).append(" gauge\n");
+        games.forEach((name, dealer) -> text.append(metric).append("{game=\"").append(escape(name)).append("\"} ")
+                .append(gauge.value(dealer)).append('\n'));
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
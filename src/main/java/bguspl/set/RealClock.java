@@ -0,0 +1,27 @@
+package bguspl.set;
+
+/**
+ * Real time, from the monotonic System.nanoTime (so adjustments of the wall clock do not affect the game).
+ */
+public class RealClock implements Clock {
+
+    @Override
+    public long millis() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    @Override
+    public long nanos() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    @Override
+    public void await(Object monitor, long millis) throws InterruptedException {
+        monitor.wait(millis);
+    }
+}
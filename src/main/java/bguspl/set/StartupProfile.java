@@ -0,0 +1,54 @@
+package bguspl.set;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Records the duration of each startup phase, for the startup timing report.
+ */
+public class StartupProfile {
+
+    /**
+     * The time (in nanoseconds) in which the startup began.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * The duration (in milliseconds) of each phase, in the order the phases ended.
+     */
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    /**
+     * @return - the start time of a new phase (to be passed to end).
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the duration of a phase.
+     *
+     * @param phase - the name of the phase.
+     * @param begin - the start time of the phase (as returned by begin).
+     */
+    public synchronized void end(String phase, long begin) {
+        phases.put(phase, (System.nanoTime() - begin) / 1_000_000);
+    }
+
+    /**
+     * Records the time since the startup began.
+     *
+     * @param milestone - the name of the milestone reached.
+     */
+    public void mark(String milestone) {
+        end(milestone, start);
+    }
+
+    /**
+     * @return - a one line report of all the phases recorded so far.
+     */
+    public synchronized String report() {
+        return phases.entrySet().stream().map(e -> e.getKey() + " " + e.getValue() + "ms").collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,413 @@
+package bguspl.set;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A local store of the players' statistics across games: the games, wins, points and penalties of each player, the time
+ * it takes him to find a set and his reaction times.
+ * The results of finished games are appended to log files (segments) by a background thread in batches, with one write
+ * and one sync per batch, so recording a game only queues its results. The totals of each player are kept in memory,
+ * indexed by name and ordered by points for the leaderboard, and are rebuilt from the segments when the store is opened.
+ * Once there are too many segments, they are compacted into a single segment holding the totals.
+ */
+public class StatsStore implements Runnable {
+
+    private static final int MAGIC = 0x53455453; // "SETS"
+
+    /**
+     * The kinds of segments: results appended to the totals so far, or totals replacing all the earlier segments.
+     */
+    private static final byte LOG = 0;
+    private static final byte COMPACTED = 1;
+
+    /**
+     * A segment is closed (and a new one started) once it is this long.
+     */
+    private static final long SEGMENT_BYTES = 4L << 20;
+
+    /**
+     * The segments are compacted once there are this many of them.
+     */
+    private static final int MAX_SEGMENTS = 8;
+
+    /**
+     * How long the writer waits for results before checking whether it should terminate (in milliseconds).
+     */
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * The leaderboard order: most points first, then most wins, then by name.
+     */
+    private static final Comparator<PlayerStats> LEADERBOARD = Comparator.comparingLong((PlayerStats stats) -> -stats.points)
+            .thenComparingLong(stats -> -stats.wins)
+            .thenComparing(stats -> stats.name);
+
+    /**
+     * The statistics of a player: either his result in one game or his totals over all the games recorded.
+     */
+    public static final class PlayerStats {
+
+        public final String name;
+        public final long games;
+        public final long wins;
+        public final long points;
+        public final long penalties;
+
+        /**
+         * The total time it took the player to find his sets (each from the start of the game or his previous point),
+         * in nanoseconds.
+         */
+        public final long setNanos;
+
+        /**
+         * The times from the last card dealt to each of the player's claims (in nanoseconds).
+         */
+        public final Histogram.Snapshot reactionTimes;
+
+        public PlayerStats(String name, long games, long wins, long points, long penalties, long setNanos,
+                           Histogram.Snapshot reactionTimes) {
+            this.name = name;
+            this.games = games;
+            this.wins = wins;
+            this.points = points;
+            this.penalties = penalties;
+            this.setNanos = setNanos;
+            this.reactionTimes = reactionTimes;
+        }
+
+        PlayerStats plus(PlayerStats other) {
+            return new PlayerStats(name, games + other.games, wins + other.wins, points + other.points,
+                    penalties + other.penalties, setNanos + other.setNanos, reactionTimes.plus(other.reactionTimes));
+        }
+
+        /**
+         * @return - the mean time it took the player to find a set (in milliseconds).
+         */
+        public double meanTimeToSetMillis() {
+            return points == 0 ? 0 : setNanos / 1e6 / points;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: games=%d wins=%d points=%d penalties=%d time-to-set=%.0fms reaction p50=%.1fms p90=%.1fms p99=%.1fms",
+                    name, games, wins, points, penalties, meanTimeToSetMillis(), reactionTimes.percentile(50) / 1e6,
+                    reactionTimes.percentile(90) / 1e6, reactionTimes.percentile(99) / 1e6);
+        }
+    }
+
+    private final Path dir;
+    private final Logger logger;
+
+    /**
+     * The results waiting to be written.
+     */
+    private final BlockingQueue<PlayerStats> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * The totals of each player, by name and in leaderboard order (guarded by this).
+     */
+    private final Map<String, PlayerStats> totals = new HashMap<>();
+    private final TreeSet<PlayerStats> leaderboard = new TreeSet<>(LEADERBOARD);
+
+    /**
+     * The segments, oldest first, the last of which is being written (used by the writer thread only, once started).
+     */
+    private final List<Path> segments = new ArrayList<>();
+    private long segmentNumber;
+    private FileOutputStream segmentFile;
+    private DataOutputStream segment;
+    private long segmentBytes;
+
+    /**
+     * A record being encoded (used by the writer thread only).
+     */
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+
+    private volatile boolean terminate;
+
+    private final Histogram writeTime;
+    private final LongAdder recorded;
+
+    /**
+     * Opens the store, reading the totals from its segments.
+     *
+     * @param dir     - the directory of the segments (created if needed).
+     * @param metrics - the metrics registry.
+     * @param logger  - the logger.
+     * @throws IOException - if the directory cannot be read or the first segment cannot be created.
+     */
+    public StatsStore(Path dir, Metrics metrics, Logger logger) throws IOException {
+        this.dir = dir;
+        this.logger = logger;
+        writeTime = metrics.histogram("stats.write");
+        recorded = metrics.counter("stats.records");
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            segments.addAll(files.filter(file -> file.getFileName().toString().matches("stats-\\d+\\.log"))
+                    .sorted().collect(Collectors.toList()));
+        }
+        for (Path file : segments)
+            load(file);
+        if (!segments.isEmpty()) {
+            String last = segments.get(segments.size() - 1).getFileName().toString();
+            segmentNumber = Long.parseLong(last.substring("stats-".length(), last.length() - ".log".length()));
+        }
+        // a crash may have cut the last record short, so the last segment is not appended to
+        if (segments.size() >= MAX_SEGMENTS) compact();
+        else startSegment(LOG);
+        logger.info("stats: " + totals.size() + " players in " + segments.size() + " segments of " + dir);
+    }
+
+    private static Path segmentPath(Path dir, long number) {
+        return dir.resolve(String.format("stats-%06d.log", number));
+    }
+
+    /**
+     * Reads the records of a segment into the totals, up to the end of the segment or a damaged record (one whose
+     * length does not fit in the rest of the segment, or whose checksum does not match).
+     */
+    private void load(Path file) throws IOException {
+        long left = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                logger.severe("stats: " + file + " is not a statistics segment, skipped");
+                return;
+            }
+            if (in.readByte() == COMPACTED) {
+                totals.clear();
+                leaderboard.clear();
+            }
+            left -= Integer.BYTES + Byte.BYTES;
+            while (true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                left -= 2 * Integer.BYTES;
+                boolean intact = length >= 0 && length <= left;
+                byte[] bytes = null;
+                if (intact) {
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                    left -= length;
+                    crc.reset();
+                    crc.update(bytes, 0, length);
+                    intact = (int) crc.getValue() == checksum;
+                }
+                if (!intact) {
+                    logger.severe("stats: damaged record in " + file + ", the rest of the segment is skipped");
+                    return;
+                }
+                add(decode(new DataInputStream(new ByteArrayInputStream(bytes))));
+            }
+        } catch (EOFException ignored) {}
+    }
+
+    private synchronized void add(PlayerStats result) {
+        PlayerStats total = totals.get(result.name);
+        if (total != null) leaderboard.remove(total);
+        total = total == null ? result : total.plus(result);
+        totals.put(total.name, total);
+        leaderboard.add(total);
+    }
+
+    /**
+     * Queues the results of a finished game (returns immediately; the results are written by the writer thread).
+     *
+     * @param results - the result of each player in the game.
+     */
+    public void record(List<PlayerStats> results) {
+        queue.addAll(results);
+    }
+
+    /**
+     * @param name - the name of a player.
+     * @return - the player's totals over the games written so far (null if there are none).
+     */
+    public synchronized PlayerStats stats(String name) {
+        return totals.get(name);
+    }
+
+    /**
+     * @param n - the number of players.
+     * @return - the n players with the most points (over the games written so far), best first.
+     */
+    public synchronized List<PlayerStats> top(int n) {
+        List<PlayerStats> top = new ArrayList<>(Math.min(n, leaderboard.size()));
+        for (PlayerStats stats : leaderboard) {
+            if (top.size() == n) break;
+            top.add(stats);
+        }
+        return top;
+    }
+
+    /**
+     * The writer thread starts here: writes the queued results in batches until the store is terminated and the queue
+     * is empty.
+     */
+    @Override
+    public void run() {
+        List<PlayerStats> batch = new ArrayList<>();
+        while (!terminate || !queue.isEmpty()) {
+            try {
+                PlayerStats first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch);
+                write(batch);
+            } catch (InterruptedException ignored) {
+            } catch (IOException e) {
+                logger.severe("stats: cannot write to " + segmentPath(dir, segmentNumber) + ": " + e);
+            }
+            batch.clear();
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            logger.severe("stats: cannot close " + segmentPath(dir, segmentNumber) + ": " + e);
+        }
+    }
+
+    /**
+     * Appends a batch of results to the segment (synced once), then adds them to the totals.
+     */
+    private void write(List<PlayerStats> batch) throws IOException {
+        long start = System.nanoTime();
+        try {
+            for (PlayerStats result : batch)
+                append(segment, result);
+            segment.flush();
+            segmentFile.getFD().sync();
+        } finally {
+            for (PlayerStats result : batch)
+                add(result);
+            recorded.add(batch.size());
+        }
+        if (segmentBytes >= SEGMENT_BYTES) {
+            segment.close();
+            if (segments.size() >= MAX_SEGMENTS) compact();
+            else startSegment(LOG);
+        }
+        writeTime.record(System.nanoTime() - start);
+    }
+
+    private void startSegment(byte kind) throws IOException {
+        Path file = segmentPath(dir, ++segmentNumber);
+        segmentFile = new FileOutputStream(file.toFile());
+        segment = new DataOutputStream(new BufferedOutputStream(segmentFile));
+        segment.writeInt(MAGIC);
+        segment.writeByte(kind);
+        segmentBytes = 5;
+        segments.add(file);
+    }
+
+    /**
+     * Writes the totals to a new (compacted) segment and deletes the segments before it. The compacted segment is
+     * renamed into place only once it is complete, and replaces the totals of the earlier segments when read, so a
+     * crash at any point loses nothing and counts nothing twice.
+     */
+    private void compact() throws IOException {
+        Path file = segmentPath(dir, ++segmentNumber);
+        Path temporary = dir.resolve(file.getFileName() + ".tmp");
+        List<PlayerStats> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(totals.values());
+        }
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile());
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+            data.writeInt(MAGIC);
+            data.writeByte(COMPACTED);
+            for (PlayerStats total : snapshot)
+                append(data, total);
+            data.flush();
+            out.getFD().sync();
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        for (Path old : segments)
+            Files.deleteIfExists(old);
+        segments.clear();
+        segments.add(file);
+        logger.info("stats: compacted " + snapshot.size() + " players into " + file);
+        startSegment(LOG);
+    }
+
+    /**
+     * Appends a record (its length, its checksum and the encoded statistics).
+     */
+    private void append(DataOutputStream out, PlayerStats stats) throws IOException {
+        record.reset();
+        recordOut.writeUTF(stats.name);
+        recordOut.writeLong(stats.games);
+        recordOut.writeLong(stats.wins);
+        recordOut.writeLong(stats.points);
+        recordOut.writeLong(stats.penalties);
+        recordOut.writeLong(stats.setNanos);
+        Histogram.Snapshot reactions = stats.reactionTimes;
+        recordOut.writeLong(reactions.count);
+        recordOut.writeLong(reactions.sum);
+        recordOut.writeLong(reactions.max);
+        long[] counts = reactions.counts();
+        int used = 0;
+        for (long count : counts)
+            if (count != 0) ++used;
+        recordOut.writeShort(used);
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            if (counts[bucket] == 0) continue;
+            recordOut.writeShort(bucket);
+            recordOut.writeLong(counts[bucket]);
+        }
+        recordOut.flush();
+
+        crc.reset();
+        crc.update(record.toByteArray(), 0, record.size());
+        out.writeInt(record.size());
+        out.writeInt((int) crc.getValue());
+        record.writeTo(out);
+        segmentBytes += 8 + record.size();
+    }
+
+    private static PlayerStats decode(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        long games = in.readLong(), wins = in.readLong(), points = in.readLong(), penalties = in.readLong();
+        long setNanos = in.readLong();
+        long count = in.readLong(), sum = in.readLong(), max = in.readLong();
+        long[] counts = new long[Histogram.buckets()];
+        for (int used = in.readShort(); used > 0; --used) {
+            int bucket = in.readShort();
+            counts[bucket] = in.readLong();
+        }
+        return new PlayerStats(name, games, wins, points, penalties, setNanos, new Histogram.Snapshot(counts, count, sum, max));
+    }
+
+    /**
+     * Called when the store should be closed: the writer thread writes the queued results and terminates.
+     */
+    public void terminate() {
+        terminate = true;
+    }
+}
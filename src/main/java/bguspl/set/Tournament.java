@@ -0,0 +1,285 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Strategy;
+import bguspl.set.ex.Table;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Runs a tournament of many games between computer players in one process. The entrants wait in a queue and are seated
+ * at a table (config.players seats) as soon as enough of them are free; each game is run by a bounded pool of workers
+ * (the dealer runs on the worker, and creates the other threads of the game as usual). Scheduling a game waits while
+ * all the workers are busy and the backlog is full, and a game running longer than the timeout is terminated.
+ * All the games share one environment (configuration, utilities, metrics and a user interface that shows nothing),
+ * except that each game has its own clock in virtual time (config.virtualTime); their results are collected into
+ * rankings, and into the statistics store if there is one. The game timeout is always in real time.
+ */
+public class Tournament {
+
+    /**
+     * An entrant of the tournament and its results so far.
+     */
+    public static class Entrant {
+
+        public final String name;
+        public final Strategy strategy;
+
+        private long games;
+        private long wins;
+        private long points;
+        private long timeouts;
+
+        public Entrant(String name, Strategy strategy) {
+            this.name = name;
+            this.strategy = strategy;
+        }
+
+        private synchronized void record(boolean finished, boolean won, int score) {
+            ++games;
+            if (!finished) ++timeouts;
+            if (won) ++wins;
+            points += score;
+        }
+
+        public synchronized long games() {
+            return games;
+        }
+
+        public synchronized long wins() {
+            return wins;
+        }
+
+        public synchronized long points() {
+            return points;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s (%s): games=%d wins=%d points=%d timeouts=%d", name, strategy, games, wins, points, timeouts);
+        }
+    }
+
+    private final Env env;
+    private final List<Entrant> entrants;
+
+    /**
+     * The entrants that are not playing (waiting to be seated).
+     */
+    private final BlockingQueue<Entrant> waiting;
+
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * The games that may be scheduled (running or waiting for a worker).
+     */
+    private final Semaphore scheduled;
+
+    /**
+     * Terminates the games that run for too long.
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Keeps the players' statistics (null if there is no store).
+     */
+    private final StatsStore stats;
+
+    private final LongAdder finishedGames;
+    private final LongAdder timedOutGames;
+    private final Histogram gameTime;
+
+    /**
+     * @param env      - the environment shared by all the games.
+     * @param entrants - the entrants (at least config.players of them).
+     * @param stats    - the statistics store (null if there is none).
+     */
+    public Tournament(Env env, List<Entrant> entrants, StatsStore stats) {
+        if (entrants.size() < env.config.players)
+            throw new IllegalArgumentException(entrants.size() + " entrants cannot fill a table of " + env.config.players);
+        this.env = env;
+        this.entrants = entrants;
+        this.stats = stats;
+        List<Entrant> shuffled = new ArrayList<>(entrants);
+        Collections.shuffle(shuffled);
+        waiting = new LinkedBlockingQueue<>(shuffled);
+
+        int workerCount = Math.max(1, env.config.tournamentWorkers);
+        int backlog = Math.max(1, env.config.tournamentBacklog);
+        AtomicInteger workerIds = new AtomicInteger();
+        // the semaphore bounds the games scheduled and not yet ended; a game's permit is released before its worker is
+        // free, so the queue has room for all of them (or the executor could reject a game while a worker is finishing)
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workerCount + backlog),
+                task -> new Thread(task, "game-worker-" + workerIds.getAndIncrement()));
+        scheduled = new Semaphore(workerCount + backlog);
+        timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "game-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        finishedGames = env.metrics.counter("tournament.games.finished");
+        timedOutGames = env.metrics.counter("tournament.games.timedout");
+        gameTime = env.metrics.histogram("tournament.game");
+    }
+
+    /**
+     * Runs the games of the tournament and waits for them to end.
+     *
+     * @param games - the number of games to run.
+     * @throws InterruptedException - if interrupted while scheduling or waiting for the games.
+     */
+    public void run(int games) throws InterruptedException {
+        try {
+            for (int game = 0; game < games; game++) {
+                Entrant[] seats = new Entrant[env.config.players];
+                for (int seat = 0; seat < seats.length; seat++)
+                    seats[seat] = waiting.take();
+                scheduled.acquire();
+                workers.execute(() -> play(seats));
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * Plays a game on the current (worker) thread, then returns its entrants to the queue.
+     *
+     * @param seats - the entrant in each seat.
+     */
+    private void play(Entrant[] seats) {
+        long start = System.nanoTime();
+        try {
+            Env env = this.env.config.virtualTime ? new Env(this.env.logger, this.env.config, this.env.ui, this.env.util,
+                    this.env.metrics, new VirtualClock()) : this.env;
+            Player[] players = new Player[seats.length];
+            Table table = new Table(env);
+            Dealer dealer = new Dealer(env, table, players);
+            for (int i = 0; i < players.length; i++)
+                players[i] = new Player(env, dealer, table, i, seats[i].strategy);
+
+            ScheduledFuture<?> timeout = timer.schedule(dealer::terminate, env.config.tournamentGameTimeoutMillis, TimeUnit.MILLISECONDS);
+            dealer.run();
+            timeout.cancel(false);
+
+            boolean finished = dealer.finished();
+            (finished ? finishedGames : timedOutGames).increment();
+            List<StatsStore.PlayerStats> results = dealer.results();
+            List<StatsStore.PlayerStats> named = new ArrayList<>(results.size());
+            for (int i = 0; i < seats.length; i++) {
+                StatsStore.PlayerStats result = results.get(i);
+                seats[i].record(finished, result.wins > 0, players[i].score());
+                named.add(new StatsStore.PlayerStats(seats[i].name, result.games, result.wins, result.points,
+                        result.penalties, result.setNanos, result.reactionTimes));
+            }
+            if (stats != null && finished) stats.record(named);
+        } catch (RuntimeException e) {
+            env.logger.severe("tournament: game failed: " + e);
+        } finally {
+            gameTime.record(System.nanoTime() - start);
+            List<Entrant> free = new ArrayList<>(seats.length);
+            Collections.addAll(free, seats);
+            Collections.shuffle(free);
+            waiting.addAll(free);
+            scheduled.release();
+        }
+    }
+
+    /**
+     * @return - the entrants, most wins first (then most points).
+     */
+    public List<Entrant> rankings() {
+        List<Entrant> rankings = new ArrayList<>(entrants);
+        rankings.sort(Comparator.comparingLong((Entrant entrant) -> -entrant.wins()).thenComparingLong(entrant -> -entrant.points()));
+        return rankings;
+    }
+
+    /**
+     * @param specs - the entrants, as name:strategy.
+     * @return - the entrants.
+     */
+    static List<Entrant> parseEntrants(String[] specs) {
+        List<Entrant> entrants = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            int colon = spec.lastIndexOf(':');
+            String name = (colon < 0 ? spec : spec.substring(0, colon)).trim();
+            String strategy = colon < 0 ? Strategy.RANDOM.name() : spec.substring(colon + 1).trim();
+            entrants.add(new Entrant(name, Strategy.valueOf(strategy.toUpperCase(Locale.ROOT))));
+        }
+        return entrants;
+    }
+
+    /**
+     * Runs a tournament configured by config.properties (see the Tournament settings of Config).
+     *
+     * @param args - unused.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Logger logger = Main.initLogger("tournament-");
+        Properties properties = Config.loadProperties("config.properties", logger::severe);
+        properties.putIfAbsent("LogLevel", "WARNING"); // the games' own logging would dwarf the tournament's
+        properties.setProperty("CheckpointIntervalSeconds", "0"); // the games would share the checkpoint files
+        Config config = new Config(logger, properties);
+        Metrics metrics = new Metrics();
+        Util util = new UtilImpl(config);
+        Env env = new Env(logger, config, new HeadlessUserInterface(), util, metrics);
+        if (config.metricsDumpMillis > 0)
+            metrics.startDumping(Paths.get("./logs/metrics-tournament.txt"), config.metricsDumpMillis, logger);
+
+        StatsStore stats = null;
+        ThreadLogger statsThread = null;
+        if (!config.statsDir.isEmpty()) {
+            try {
+                stats = new StatsStore(Paths.get(config.statsDir), metrics, logger);
+                statsThread = new ThreadLogger(stats, "stats-writer", logger);
+                statsThread.startWithLog();
+            } catch (IOException e) {
+                logger.severe("cannot open the statistics store in " + config.statsDir + ": " + e.getMessage());
+                stats = null;
+            }
+        }
+
+        Tournament tournament = new Tournament(env, parseEntrants(config.tournamentEntrants), stats);
+        long start = System.currentTimeMillis();
+        try {
+            tournament.run(config.tournamentGames);
+        } finally {
+            metrics.stopDumping();
+            if (stats != null) {
+                stats.terminate();
+                statsThread.joinWithLog();
+            }
+        }
+
+        StringBuilder report = new StringBuilder(String.format("tournament: %d games (%d timed out) in %.1fs%n",
+                tournament.finishedGames.sum() + tournament.timedOutGames.sum(), tournament.timedOutGames.sum(),
+                (System.currentTimeMillis() - start) / 1000.0));
+        for (Entrant entrant : tournament.rankings())
+            report.append("  ").append(entrant).append(System.lineSeparator());
+        logger.severe(report.toString());
+        System.out.print(report);
+    }
+}
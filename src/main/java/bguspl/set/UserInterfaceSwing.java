@@ -4,8 +4,6 @@ import bguspl.set.ex.Player;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.FileNotFoundException;
-import java.net.URL;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
@@ -23,14 +21,16 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     private final PlayersPanel playersPanel;
     private final WinnerPanel winnerPanel;
     private final Config config;
+    private final CardImages cardImages;
 
-    static String intInBaseToPaddedString(int n, int padding, int base) {
-        return format("%" + padding + "s", Integer.toString(n, base)).replace(' ', '0');
+    public UserInterfaceSwing(Logger logger, Config config, Player[] players) {
+        this(logger, config, players, new CardImages(config));
     }
 
-    public UserInterfaceSwing(Logger logger, Config config, Player[] players) {
+    public UserInterfaceSwing(Logger logger, Config config, Player[] players, CardImages cardImages) {
 
         this.config = config;
+        this.cardImages = cardImages;
         timerPanel = new TimerPanel();
         gamePanel = new GamePanel();
         playersPanel = new PlayersPanel();
@@ -103,38 +103,25 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     private class GamePanel extends JLayeredPane {
 
         private final Image emptyCard;
-        private final Image[] deck;
-        private final Image[][] grid;
+        private final int[][] grid;
         private final boolean[][][] playerTokens;
         private final JLabel[][] tokenText;
 
-        private Image loadImageResource(String filename) {
-            URL imageResource = getClass().getClassLoader().getResource(filename);
-            if (imageResource == null)
-                throw new RuntimeException(new FileNotFoundException(filename));
-            return new ImageIcon(imageResource).getImage();
-        }
-
         private GamePanel() {
 
             setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
 
-            // init deck and load all pictures from png files
-            assert config.featureSize < 10; // otherwise there will be naming conflicts
+            // the card images are decoded in the background, repaint once they are all ready
+            emptyCard = CardImages.loadImageResource("cards/empty_card.png");
+            cardImages.loaded().thenRun(this::repaint);
 
-            // load the image resources
-            deck = new Image[config.deckSize];
-            for (int i = 0; i < config.deckSize; ++i)
-                deck[i] = loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
-            emptyCard = loadImageResource("cards/empty_card.png");
-
-            grid = new Image[config.rows][config.columns];
+            grid = new int[config.rows][config.columns];
             tokenText = new JLabel[config.rows][config.columns];
             playerTokens = new boolean[config.players][config.rows][config.columns];
             for (int row = 0; row < config.rows; row++) {
                 for (int column = 0; column < config.columns; column++) {
                     // init the cards on the table grid as empty cards
-                    grid[row][column] = emptyCard;
+                    grid[row][column] = -1;
 
                     // init the JLabel selection overlay
                     tokenText[row][column] = new JLabel("");
@@ -151,7 +138,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         private void placeCard(int slot, int card) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            grid[row][column] = deck[card];
+            grid[row][column] = card;
             validate();
             repaint();
         }
@@ -159,7 +146,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         private void removeCard(int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            grid[row][column] = emptyCard;
+            grid[row][column] = -1;
             validate();
             repaint();
         }
@@ -205,10 +192,12 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
         @Override
         public void paintComponent(Graphics g) {
-            // draw card images
+            // draw card images (cards that are not decoded yet are drawn as empty cards)
             for (int row = 0; row < config.rows; row++)
-                for (int column = 0; column < config.columns; column++)
-                    g.drawImage(grid[row][column], (column * config.cellWidth), (row * config.cellHeight), this);
+                for (int column = 0; column < config.columns; column++) {
+                    Image image = grid[row][column] < 0 ? null : cardImages.get(grid[row][column]);
+                    g.drawImage(image == null ? emptyCard : image, (column * config.cellWidth), (row * config.cellHeight), this);
+                }
         }
     }
 
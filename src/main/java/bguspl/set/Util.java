@@ -31,6 +31,15 @@ public interface Util {
      */
     boolean testSet(int[] cards);
 
+    /**
+     * Finds the card that completes the given cards to a legal set.
+     *
+     * @param cards  - an array of distinct card ids.
+     * @param length - the number of cards to use from the array (config.featureSize - 1).
+     * @return - the id of the card completing the set, or -1 if no card does.
+     */
+    int completeSet(int[] cards, int length);
+
     /**
      * Finds and returns up to count sets in the given collection of cards.
      *
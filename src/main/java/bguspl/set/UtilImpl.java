@@ -3,8 +3,12 @@ package bguspl.set;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The implementation of the UserInterface interface.
@@ -13,81 +17,228 @@ public class UtilImpl implements Util {
 
     private final Config config;
 
+    /**
+     * The value of each feature of each card (card * featureCount + feature), decoded once per deck.
+     */
+    private final int[] features;
+
+    /**
+     * The place value of each feature in the card id (card = sum of feature value * place value).
+     */
+    private final int[] placeValues;
+
+    /**
+     * The card completing each pair of cards (null unless sets have three cards, see CompletionTable).
+     */
+    private final CompletionTable completions;
+
     public UtilImpl(Config config) {
         this.config = config;
+        completions = CompletionTable.forDeck(config);
+
+        placeValues = new int[config.featureCount];
+        for (int i = config.featureCount - 1, placeValue = 1; i >= 0; --i, placeValue *= config.featureSize)
+            placeValues[i] = placeValue;
+
+        features = new int[config.deckSize * config.featureCount];
+        for (int card = 0; card < config.deckSize; ++card)
+            for (int i = 0; i < config.featureCount; ++i)
+                features[card * config.featureCount + i] = card / placeValues[i] % config.featureSize;
     }
 
-    private void cardToFeatures(int card, int[] features) {
-        for (int i = config.featureCount - 1; i >= 0; --i) {
-            features[i] = card % config.featureSize;
-            card /= config.featureSize;
-        }
+    private int feature(int card, int feature) {
+        return features[card * config.featureCount + feature];
     }
 
     @Override
     public int[] cardToFeatures(int card) {
-        int[] features = new int[config.featureCount];
-        cardToFeatures(card, features);
-        return features;
+        return Arrays.copyOfRange(features, card * config.featureCount, (card + 1) * config.featureCount);
     }
 
     @Override
     public int[][] cardsToFeatures(int[] cards) {
-        int[][] features = new int[cards.length][config.featureCount];
-        IntStream.range(0, cards.length).forEach(i -> cardToFeatures(cards[i], features[i]));
+        int[][] features = new int[cards.length][];
+        for (int i = 0; i < cards.length; ++i)
+            features[i] = cardToFeatures(cards[i]);
         return features;
     }
 
     @Override
     public boolean testSet(int[] cards) {
-        int[][] features = cardsToFeatures(Arrays.copyOf(cards, cards.length));
+        if (completions != null && cards.length == 3) return completions.third(cards[0], cards[1]) == cards[2];
         for (int i = 0; i < config.featureCount; ++i) {
-            boolean sameSame = true, butDifferent = true;
-
-            // check if this features is sameSame in all cards
-            for (int j = 1; j < features.length; ++j)
-                if (features[0][i] != features[j][i]) {
-                    sameSame = false;
-                    break;
-                }
-
-            // check if this feature is butDifferent in all cards
-            for (int j = 1; j < features.length; ++j)
-                for (int k = j; k < features.length; ++k)
-                    if (features[j - 1][i] == features[k][i]) {
-                        butDifferent = false;
-                        break;
-                    }
-
+            // a bit for each value of this feature in the cards
+            long values = 0;
+            for (int card : cards)
+                values |= 1L << feature(card, i);
+
+            // this feature must be sameSame in all cards or butDifferent in all cards
+            int distinct = Long.bitCount(values);
+            boolean sameSame = distinct == 1, butDifferent = distinct == cards.length;
             if (sameSame == butDifferent) return false;
         }
         return true;
     }
 
+    @Override
+    public int completeSet(int[] cards, int length) {
+        if (completions != null && length == 2) return completions.third(cards[0], cards[1]);
+        long allValues = (1L << config.featureSize) - 1;
+        int card = 0;
+        for (int i = 0; i < config.featureCount; ++i) {
+            long values = 0;
+            for (int j = 0; j < length; ++j)
+                values |= 1L << feature(cards[j], i);
+
+            int distinct = Long.bitCount(values);
+            if (distinct == 1) // sameSame: the missing card has the same value
+                card += feature(cards[0], i) * placeValues[i];
+            else if (distinct == length) // butDifferent: the missing card has the missing value
+                card += Long.numberOfTrailingZeros(allValues & ~values) * placeValues[i];
+            else
+                return -1;
+        }
+        return card;
+    }
+
     @Override
     public List<int[]> findSets(List<Integer> deck, int count) {
         LinkedList<int[]> sets = new LinkedList<>();
-        int n = deck.size();
-        int r = config.featureSize;
-        int[] combination = new int[r];
+        if (count <= 0 || deck.size() < config.featureSize) return sets;
+
+        int[] cards = deck.stream().mapToInt(Integer::intValue).toArray();
+        int[] index = new int[config.deckSize];
+        Arrays.fill(index, -1);
+        for (int i = 0; i < cards.length; ++i)
+            index[cards[i]] = i;
+
+        SetCollector collector = new SetCollector(count);
+        if (cards.length < config.parallelSearchThreshold)
+            findSets(cards, index, new int[config.featureSize], new int[config.featureSize], 0, 0, cards.length, collector);
+        else
+            ForkJoinPool.commonPool().invoke(new SearchTask(cards, index, 0, cards.length, collector));
+
+        // parallel searches may find a few more sets than requested before they are cancelled
+        for (int[] set : collector.sets) {
+            if (sets.size() >= count) break;
+            sets.add(set);
+        }
+        return sets;
+    }
+
+    /**
+     * Collects the sets found by one or more concurrent searches, and cancels them once enough sets are found.
+     */
+    private static class SetCollector {
+
+        private final Queue<int[]> sets = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger found = new AtomicInteger();
+        private final int count;
 
-        for (int i = 0; i < r; ++i)
-            combination[i] = i;
+        private SetCollector(int count) {
+            this.count = count;
+        }
+
+        /**
+         * @return - true iff enough sets were found (i.e. the search should stop).
+         */
+        private boolean add(int[] set) {
+            sets.add(set);
+            return found.incrementAndGet() >= count;
+        }
+
+        private boolean done() {
+            return found.get() >= count;
+        }
+    }
+
+    /**
+     * Searches for sets whose first card is in a range of indices, splitting the range between the fork-join pool
+     * threads. The work per first card shrinks along the range, so the range is split down to a few cards and the
+     * pool's work stealing balances the load.
+     */
+    private class SearchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L; // never serialized (RecursiveAction is Serializable)
+
+        private static final int GRAIN = 4;
+
+        private final int[] cards;
+        private final int[] index;
+        private final int begin;
+        private final int end;
+        private final SetCollector collector;
+
+        private SearchTask(int[] cards, int[] index, int begin, int end, SetCollector collector) {
+            this.cards = cards;
+            this.index = index;
+            this.begin = begin;
+            this.end = end;
+            this.collector = collector;
+        }
 
-        while (combination[r - 1] < deck.size()) {
-            int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
-            if (testSet(cards)) {
-                sets.add(cards);
-                if (sets.size() >= count) return sets;
+        @Override
+        protected void compute() {
+            if (collector.done()) return;
+            if (end - begin <= GRAIN) {
+                findSets(cards, index, new int[config.featureSize], new int[config.featureSize], 0, begin, end, collector);
+            } else {
+                int middle = (begin + end) >>> 1;
+                invokeAll(new SearchTask(cards, index, begin, middle, collector),
+                        new SearchTask(cards, index, middle, end, collector));
             }
+        }
+    }
 
-            // generate next combination in lexicographic order
-            int t = r - 1;
-            while (t != 0 && combination[t] == n - r + t) --t;
-            combination[t]++;
-            for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+    /**
+     * Extends a partial set in the order of the cards array, pruning cards that already break the set. The last
+     * card of each set is not searched for, it is computed from the others (see completeSet).
+     *
+     * @param cards     - the cards to search in.
+     * @param index     - the index of each card in the cards array (-1 if not in it).
+     * @param set       - the cards of the partial set.
+     * @param from      - the indices of the cards of the partial set.
+     * @param size      - the number of cards in the partial set.
+     * @param begin     - the first index in the cards array to extend the partial set with.
+     * @param end       - the index in the cards array to stop extending the first card of the partial set at.
+     * @param collector - collects the sets found.
+     * @return - true iff enough sets were found.
+     */
+    private boolean findSets(int[] cards, int[] index, int[] set, int[] from, int size, int begin, int end,
+                             SetCollector collector) {
+        int r = config.featureSize;
+        if (size == r - 1) {
+            int card = completeSet(set, size);
+            if (card < 0 || index[card] <= from[size - 1]) return false;
+            int[] found = Arrays.copyOf(set, r);
+            found[size] = card;
+            Arrays.sort(found);
+            return collector.add(found);
         }
-        return sets;
+
+        int last = size == 0 ? end : cards.length - (r - 2 - size);
+        for (int i = begin; i < last; ++i) {
+            if (size == 0 && collector.done()) return true;
+            set[size] = cards[i];
+            from[size] = i;
+            if (size >= 2 && !consistent(set, size + 1)) continue;
+            if (findSets(cards, index, set, from, size + 1, i + 1, end, collector)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks that the last card of a partial set keeps each feature either sameSame or butDifferent.
+     */
+    private boolean consistent(int[] set, int size) {
+        int card = set[size - 1];
+        for (int i = 0; i < config.featureCount; ++i) {
+            int value = feature(card, i);
+            boolean sameSame = feature(set[0], i) == feature(set[1], i);
+            for (int j = 0; j < size - 1; ++j)
+                if ((feature(set[j], i) == value) != sameSame) return false;
+        }
+        return true;
     }
 
     public void spin() {
@@ -0,0 +1,256 @@
+package bguspl.set;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Virtual time, which jumps from one deadline to the next instead of passing: whenever all the threads that wait on the
+ * clock are blocked (waiting for time to pass, or for each other), the clock moves to the earliest time a thread waits
+ * for, and wakes that thread. The threads that wait on the clock are the ones that called sleep or await, and the game
+ * threads enrolled with register; threads that only read the time (such as a network server) never hold it back. A game on a virtual clock runs as fast as its threads do, skipping the idle time of the
+ * freezes, delays and turn timeouts, and behaves as it would in real time on an infinitely fast machine.
+ * The deadlines are kept by an advancer thread, which runs while there are threads waiting for time to pass. A thread
+ * that starts waiting on the clock signals the advancer, which then looks at the threads until they all block (or
+ * one of them keeps running), so the clock moves as soon as the game is idle; threads that block on anything else
+ * are noticed by the advancer's periodic check. A thread counts as blocked unless it is runnable (see Thread.State): a
+ * thread waiting to enter a monitor waits for the thread holding it, which may itself be waiting for time to pass. A
+ * thread notified by another one may still look blocked for a moment, so the clock may run a little ahead of such a
+ * thread; the advancer therefore waits for the threads to look blocked twice in a row.
+ */
+public class VirtualClock implements Clock {
+
+    /**
+     * How often the advancer checks whether the threads are blocked, when no thread signals it (in real nanoseconds).
+     */
+    private static final long POLL_NANOS = 100_000;
+
+    /**
+     * How long the advancer waits for the running threads to block, once signaled (in real nanoseconds).
+     */
+    private static final long SETTLE_NANOS = 50_000;
+
+    /**
+     * How long the advancer runs with no thread waiting before it ends (in real nanoseconds).
+     */
+    private static final long IDLE_NANOS = 100_000_000;
+
+    /**
+     * A thread waiting for time to pass.
+     */
+    private static final class Waiter {
+
+        final Thread thread;
+        final long target;
+
+        /**
+         * True iff the advancer woke the thread (by interrupting it).
+         */
+        boolean due;
+
+        Waiter(Thread thread, long target) {
+            this.thread = thread;
+            this.target = target;
+        }
+    }
+
+    /**
+     * The current time (in nanoseconds).
+     */
+    private final AtomicLong now = new AtomicLong();
+
+    /**
+     * The threads that wait on the clock.
+     */
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The threads waiting for time to pass, earliest deadline first (guarded by this).
+     */
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(Comparator.comparingLong((Waiter waiter) -> waiter.target));
+
+    /**
+     * The number of threads the advancer woke that have not run yet (guarded by this).
+     */
+    private int woken;
+
+    /**
+     * The advancer thread (null if it is not running, guarded by this).
+     */
+    private Thread advancer;
+
+    @Override
+    public long millis() {
+        return now.get() / 1_000_000;
+    }
+
+    @Override
+    public long nanos() {
+        return now.get();
+    }
+
+    /**
+     * Moves the clock forward, waking the threads whose wait ends.
+     *
+     * @param millis - the number of milliseconds to move it by.
+     */
+    public void advance(long millis) {
+        synchronized (this) {
+            advanceTo(now.get() + millis * 1_000_000);
+        }
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        if (Thread.interrupted()) throw new InterruptedException();
+        if (millis <= 0) return;
+        Object monitor = new Object();
+        long target = nanos() + millis * 1_000_000;
+        synchronized (monitor) {
+            while (now.get() < target)
+                waitUntil(monitor, target);
+        }
+    }
+
+    @Override
+    public void await(Object monitor, long millis) throws InterruptedException {
+        if (millis == 0) {
+            join();
+            signal();
+            monitor.wait();
+            return;
+        }
+        waitUntil(monitor, nanos() + millis * 1_000_000);
+    }
+
+    /**
+     * Waits on a monitor, which the calling thread holds, until it is notified or the clock reaches the target.
+     */
+    private void waitUntil(Object monitor, long target) throws InterruptedException {
+        join();
+        Waiter waiter = new Waiter(Thread.currentThread(), target);
+        synchronized (this) {
+            if (now.get() >= target) return;
+            waiters.add(waiter);
+            if (advancer == null) {
+                advancer = new Thread(this::runAdvancer, "virtual-clock");
+                advancer.setDaemon(true);
+                advancer.start();
+            }
+            LockSupport.unpark(advancer);
+        }
+        try {
+            monitor.wait();
+        } catch (InterruptedException e) {
+            if (!leave(waiter)) throw e;
+            return;
+        }
+        if (leave(waiter)) Thread.interrupted(); // the advancer's interrupt did not reach the wait
+    }
+
+    /**
+     * Removes a waiter after its wait.
+     *
+     * @return - true iff the advancer woke it.
+     */
+    private synchronized boolean leave(Waiter waiter) {
+        if (waiter.due) {
+            --woken;
+            return true;
+        }
+        waiters.remove(waiter);
+        return false;
+    }
+
+    @Override
+    public void register(Thread thread) {
+        threads.add(thread);
+    }
+
+    /**
+     * Tells the advancer that the calling thread is about to block (so the clock may move).
+     */
+    private synchronized void signal() {
+        if (advancer != null) LockSupport.unpark(advancer);
+    }
+
+    private void join() {
+        Thread thread = Thread.currentThread();
+        if (!threads.contains(thread)) threads.add(thread);
+    }
+
+    /**
+     * The advancer thread starts here: moves the clock to the earliest deadline whenever all the threads are blocked.
+     */
+    private void runAdvancer() {
+        long idleSince = System.nanoTime();
+        while (true) {
+            LockSupport.parkNanos(this, POLL_NANOS); // until signaled, or the next periodic check
+            synchronized (this) {
+                if (waiters.isEmpty()) {
+                    if (System.nanoTime() - idleSince < IDLE_NANOS) continue;
+                    advancer = null;
+                    return;
+                }
+                if (woken > 0) continue; // the threads woken last have not run yet
+            }
+            idleSince = System.nanoTime();
+            if (!settled()) continue;
+            synchronized (this) {
+                if (woken == 0 && !waiters.isEmpty()) advanceTo(waiters.peek().target);
+            }
+        }
+    }
+
+    /**
+     * Waits a moment for the running threads to block.
+     *
+     * @return - true iff all the threads looked blocked twice in a row.
+     */
+    private boolean settled() {
+        long start = System.nanoTime();
+        boolean blocked = false;
+        do {
+            if (allBlocked()) {
+                if (blocked) return true;
+                blocked = true; // look again before moving the clock
+            } else {
+                blocked = false;
+            }
+            Thread.yield();
+        } while (System.nanoTime() - start < SETTLE_NANOS);
+        return false;
+    }
+
+    /**
+     * Moves the clock to the given time (if it is later), and wakes the threads whose wait ends.
+     */
+    private void advanceTo(long nanos) {
+        now.accumulateAndGet(nanos, Math::max);
+        for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+            Waiter waiter = it.next();
+            if (waiter.target > now.get()) continue;
+            it.remove();
+            waiter.due = true;
+            ++woken;
+            waiter.thread.interrupt();
+        }
+    }
+
+    /**
+     * @return - true iff none of the threads that wait on the clock is running (a thread enrolled and not started yet
+     * is about to run).
+     */
+    private boolean allBlocked() {
+        for (Iterator<Thread> it = threads.iterator(); it.hasNext(); ) {
+            Thread.State state = it.next().getState();
+            if (state == Thread.State.TERMINATED) it.remove();
+            else if (state == Thread.State.RUNNABLE || state == Thread.State.NEW) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,394 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.Histogram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Saves the state of a game (the deck, the cards on the table and the scores) so it can be resumed after a crash.
+ * The game threads only append small events to a lock-free ring, from within the critical sections making the changes
+ * (so the events of each card, slot and player are in order), and never wait for the disk. The checkpointer thread
+ * applies the events to its own copy of the state and appends them to a journal; periodically it writes the whole copy
+ * to a checkpoint (to a temporary file first, renamed over the previous checkpoint atomically) and starts a new journal.
+ * Recovery reads the last checkpoint and replays the journal written after it (see recover).
+ *
+ * @inv the checkpoint and the journal of the same generation together hold every event journaled so far
+ */
+public class Checkpointer implements Runnable {
+
+    private static final int CHECKPOINT_MAGIC = 0x53455443; // "SETC"
+    private static final int JOURNAL_MAGIC = 0x5345544A; // "SETJ"
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The name of the files of the game run by Main.
+     */
+    public static final String GAME = "game";
+
+    /**
+     * The events of the journal: a card dealt from the deck to a slot, the card of a slot discarded (part of a set), the
+     * card of a slot returned to the deck, and the new score of a player.
+     */
+    private static final int DEAL = 1;
+    private static final int DISCARD = 2;
+    private static final int RETURN = 3;
+    private static final int SCORE = 4;
+
+    /**
+     * The number of events the ring holds (a power of 2).
+     */
+    private static final int RING_SIZE = 1 << 14;
+
+    /**
+     * How long the checkpointer thread sleeps when there are no events (in nanoseconds).
+     */
+    private static final long IDLE_NANOS = 1_000_000;
+
+    /**
+     * The state of a game as it is saved: the cards in the deck, the card in each slot (-1 if none) and the score of
+     * each player.
+     */
+    public static final class State {
+        final BitSet deck;
+        final int[] slots;
+        final int[] scores;
+        long generation;
+
+        State(Config config) {
+            deck = new BitSet(config.deckSize);
+            deck.set(0, config.deckSize);
+            slots = new int[config.tableSize];
+            Arrays.fill(slots, -1);
+            scores = new int[config.players];
+        }
+
+        private State(State other) {
+            deck = (BitSet) other.deck.clone();
+            slots = other.slots.clone();
+            scores = other.scores.clone();
+            generation = other.generation;
+        }
+
+        private void apply(long event) {
+            int type = (int) (event >>> 56);
+            int a = (int) (event >>> 32) & 0xFFFFFF;
+            int b = (int) event;
+            switch (type) {
+                case DEAL:
+                    deck.clear(a);
+                    slots[b] = a;
+                    break;
+                case DISCARD:
+                    slots[a] = -1;
+                    break;
+                case RETURN:
+                    if (slots[a] != -1) deck.set(slots[a]);
+                    slots[a] = -1;
+                    break;
+                case SCORE:
+                    scores[a] = b;
+                    break;
+                default:
+                    throw new IllegalStateException("unknown journal event " + type);
+            }
+        }
+
+        /**
+         * @return - the number of cards in the deck.
+         */
+        public int deckSize() {
+            return deck.cardinality();
+        }
+
+        /**
+         * @return - the number of cards on the table.
+         */
+        public int cardsOnTable() {
+            int cards = 0;
+            for (int card : slots)
+                if (card != -1) ++cards;
+            return cards;
+        }
+
+        @Override
+        public String toString() {
+            return "generation " + generation + ": deck " + deckSize() + ", table " + cardsOnTable() + ", scores " + Arrays.toString(scores);
+        }
+    }
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    private final Path checkpointFile;
+    private final Path temporaryFile;
+    private final Path journalFile;
+
+    /**
+     * The ring of events: the event of ticket t is kept at index t % RING_SIZE, whose published number is t while the
+     * index is free for it and t + 1 once the event is in it.
+     */
+    private final AtomicLongArray events = new AtomicLongArray(RING_SIZE);
+    private final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The ticket of the next event to consume (used by the checkpointer thread only).
+     */
+    private long head;
+
+    /**
+     * The checkpointer's copy of the state (used by the checkpointer thread only, once it is started).
+     */
+    private State state;
+
+    private DataOutputStream journal;
+
+    private volatile boolean terminate;
+    private volatile boolean finished;
+
+    /**
+     * True iff writing failed (the events are no longer kept).
+     */
+    private volatile boolean failed;
+
+    private final Histogram checkpointTime;
+    private final LongAdder journaled;
+
+    /**
+     * @param env  - the game environment object.
+     * @param dir  - the directory of the checkpoint and journal files.
+     * @param name - the name of the game (the prefix of its files).
+     */
+    public Checkpointer(Env env, Path dir, String name) {
+        this.env = env;
+        checkpointFile = dir.resolve(name + ".checkpoint");
+        temporaryFile = dir.resolve(name + ".checkpoint.tmp");
+        journalFile = dir.resolve(name + ".journal");
+        state = new State(env.config);
+        for (int i = 0; i < RING_SIZE; i++)
+            published.set(i, i);
+        checkpointTime = env.metrics.histogram("checkpoint.write");
+        journaled = env.metrics.counter("checkpoint.events");
+    }
+
+    /**
+     * Starts from a recovered state instead of a new game (must be called before the checkpointer thread starts).
+     *
+     * @param recovered - the state to start from.
+     */
+    void reset(State recovered) {
+        state = new State(recovered);
+    }
+
+    /**
+     * Called when a card is dealt from the deck to a slot.
+     */
+    void dealt(int card, int slot) {
+        append(DEAL, card, slot);
+    }
+
+    /**
+     * Called when the card in a slot leaves the game (part of a legal set).
+     */
+    void discarded(int slot) {
+        append(DISCARD, slot, 0);
+    }
+
+    /**
+     * Called when the card in a slot is returned to the deck.
+     */
+    void returned(int slot) {
+        append(RETURN, slot, 0);
+    }
+
+    /**
+     * Called when the score of a player changes.
+     */
+    void scored(int player, int score) {
+        append(SCORE, player, score);
+    }
+
+    /**
+     * Appends an event to the ring (allocates nothing; waits only if the ring is full).
+     */
+    private void append(int type, int a, int b) {
+        long ticket = tail.getAndIncrement();
+        int index = (int) ticket & (RING_SIZE - 1);
+        while (published.get(index) != ticket) {
+            if (failed) return;
+            Thread.yield();
+        }
+        events.set(index, (long) type << 56 | (long) a << 32 | (b & 0xFFFFFFFFL));
+        published.set(index, ticket + 1);
+    }
+
+    /**
+     * The checkpointer thread starts here: writes a checkpoint of the initial state, then journals the events and
+     * writes a checkpoint every config.checkpointMillis, until the game is terminated.
+     */
+    @Override
+    public void run() {
+        try {
+            checkpoint();
+            long period = TimeUnit.MILLISECONDS.toNanos(env.config.checkpointMillis);
+            long next = System.nanoTime() + period;
+            while (!terminate) {
+                if (drain() > 0) journal.flush();
+                else LockSupport.parkNanos(IDLE_NANOS);
+                if (System.nanoTime() - next >= 0) { // compared by difference, as nanoTime may wrap
+                    checkpoint();
+                    next = System.nanoTime() + period;
+                }
+            }
+            drain();
+            if (finished) {
+                journal.close();
+                Files.deleteIfExists(journalFile);
+                Files.deleteIfExists(checkpointFile);
+                env.logger.info("checkpoint: game finished, " + checkpointFile + " removed");
+            } else {
+                checkpoint();
+                journal.close();
+                env.logger.info("checkpoint: final " + state);
+            }
+        } catch (IOException e) {
+            failed = true;
+            env.logger.severe("checkpoint: cannot write to " + checkpointFile + ", checkpointing stopped: " + e);
+        }
+    }
+
+    /**
+     * Applies the published events to the state and appends them to the journal.
+     *
+     * @return - the number of events consumed.
+     */
+    private int drain() throws IOException {
+        int count = 0;
+        for (int index = (int) head & (RING_SIZE - 1); published.get(index) == head + 1; index = (int) head & (RING_SIZE - 1)) {
+            long event = events.get(index);
+            published.set(index, head + RING_SIZE);
+            ++head;
+            state.apply(event);
+            journal.writeLong(event);
+            ++count;
+        }
+        journaled.add(count);
+        return count;
+    }
+
+    /**
+     * Writes the state to a new checkpoint and starts a new journal. A crash before the rename leaves the previous
+     * checkpoint and journal; a crash after it leaves a journal of an older generation, which recovery ignores.
+     */
+    private void checkpoint() throws IOException {
+        long start = System.nanoTime();
+        ++state.generation;
+        Files.createDirectories(checkpointFile.getParent());
+        try (FileOutputStream file = new FileOutputStream(temporaryFile.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(state.generation);
+            out.writeInt(env.config.deckSize);
+            out.writeInt(state.slots.length);
+            out.writeInt(state.scores.length);
+            out.writeInt(state.deckSize());
+            for (int card = state.deck.nextSetBit(0); card >= 0; card = state.deck.nextSetBit(card + 1))
+                out.writeInt(card);
+            for (int card : state.slots)
+                out.writeInt(card);
+            for (int score : state.scores)
+                out.writeInt(score);
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporaryFile, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        if (journal != null) journal.close();
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile.toFile())));
+        journal.writeInt(JOURNAL_MAGIC);
+        journal.writeLong(state.generation);
+        journal.flush();
+        checkpointTime.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Called when the game should be terminated: the checkpointer writes the events left and a final checkpoint (or,
+     * if the game was played to its end, removes its files, since there is nothing left to resume).
+     *
+     * @param finished - true iff the game ended (no sets left), false if it was stopped.
+     */
+    public void terminate(boolean finished) {
+        this.finished = finished;
+        terminate = true;
+    }
+
+    /**
+     * Reads the last checkpoint of a game and replays the journal written after it.
+     *
+     * @param config - the game configuration (the checkpoint must have been written with the same dimensions).
+     * @param dir    - the directory of the checkpoint and journal files.
+     * @param name   - the name of the game.
+     * @return - the recovered state, or null if there is no checkpoint.
+     * @throws IOException - if the checkpoint cannot be read or does not fit the configuration.
+     */
+    public static State recover(Config config, Path dir, String name) throws IOException {
+        Path checkpointFile = dir.resolve(name + ".checkpoint");
+        if (!Files.exists(checkpointFile)) return null;
+
+        State state = new State(config);
+        try (DataInputStream in = open(checkpointFile)) {
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != FORMAT_VERSION)
+                throw new IOException(checkpointFile + " is not a checkpoint");
+            state.generation = in.readLong();
+            int deckSize = in.readInt(), tableSize = in.readInt(), players = in.readInt();
+            if (deckSize != config.deckSize || tableSize != config.tableSize || players != config.players)
+                throw new IOException(checkpointFile + " was written for " + deckSize + " cards, " + tableSize
+                        + " slots and " + players + " players");
+            state.deck.clear();
+            for (int cards = in.readInt(); cards > 0; --cards)
+                state.deck.set(in.readInt());
+            for (int slot = 0; slot < tableSize; slot++)
+                state.slots[slot] = in.readInt();
+            for (int player = 0; player < players; player++)
+                state.scores[player] = in.readInt();
+        }
+
+        Path journalFile = dir.resolve(name + ".journal");
+        if (Files.exists(journalFile)) {
+            try (DataInputStream in = open(journalFile)) {
+                if (in.readInt() == JOURNAL_MAGIC && in.readLong() == state.generation) {
+                    // the last event may be cut short by the crash
+                    while (true) state.apply(in.readLong());
+                }
+            } catch (EOFException ignored) {}
+        }
+        return state;
+    }
+
+    private static DataInputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        return new DataInputStream(new BufferedInputStream(in));
+    }
+}
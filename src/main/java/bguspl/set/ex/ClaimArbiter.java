@@ -0,0 +1,151 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+import bguspl.set.Histogram;
+
+/**
+ * Orders the players' claims by the time their last token was placed, rather than by the time the dealer got to
+ * them. A claim is only handed to the dealer once the claim window (config.claimWindowMillis) has passed since it was
+ * made, so a competing claim made earlier, but submitted later, still wins the conflict.
+ * Also keeps per-player fairness metrics.
+ *
+ * @inv pending[p] iff player p has a claim that was submitted and not yet polled
+ */
+public class ClaimArbiter {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * The pending claims: whether each player has one, and the time (in nanoseconds) it was made.
+     */
+    private final boolean[] pending;
+    private final long[] claimTime;
+    private int pendingCount;
+
+    /**
+     * Per-player fairness metrics.
+     */
+    private final long[] claims;
+    private final long[] points;
+    private final long[] penalties;
+    private final long[] conflicts; // claims invalidated by an earlier claim that took one of their cards
+    private final long[] voided; // claims invalidated by the dealer taking their cards (reshuffled or replaced)
+    private final long[] latency; // total nanoseconds from making a claim to its response
+
+    /**
+     * The time claims wait from being made until the dealer takes them (in nanoseconds).
+     */
+    private final Histogram queueWait;
+
+    public ClaimArbiter(Env env) {
+        this.env = env;
+        int players = env.config.players;
+        pending = new boolean[players];
+        claimTime = new long[players];
+        claims = new long[players];
+        points = new long[players];
+        penalties = new long[players];
+        conflicts = new long[players];
+        voided = new long[players];
+        latency = new long[players];
+        queueWait = env.metrics.histogram("claim.queue.wait");
+    }
+
+    /**
+     * Submits a player's claim.
+     *
+     * @param player - the player making the claim.
+     * @param time   - the time (env.clock.nanos) in which the player placed his last token.
+     */
+    public synchronized void submit(int player, long time) {
+        if (!pending[player]) ++pendingCount;
+        pending[player] = true;
+        claimTime[player] = time;
+        ++claims[player];
+    }
+
+    /**
+     * Hands out the earliest pending claim, if its claim window has passed.
+     *
+     * @param now - the current time (env.clock.nanos).
+     * @return - the player of the earliest pending claim, or -1 if there is none ready.
+     */
+    public synchronized int poll(long now) {
+        int earliest = earliest();
+        if (earliest == -1 || now - claimTime[earliest] < windowNanos()) return -1;
+        pending[earliest] = false;
+        --pendingCount;
+        queueWait.record(now - claimTime[earliest]);
+        return earliest;
+    }
+
+    /**
+     * @param now - the current time (env.clock.nanos).
+     * @return - the number of milliseconds until the earliest pending claim is ready (0 if it is ready already),
+     * or -1 if there are no pending claims.
+     */
+    public synchronized long millisUntilReady(long now) {
+        int earliest = earliest();
+        if (earliest == -1) return -1;
+        long nanos = claimTime[earliest] + windowNanos() - now;
+        return nanos <= 0 ? 0 : (nanos + 999_999) / 1_000_000;
+    }
+
+    /**
+     * Records the dealer's response to a claim.
+     *
+     * @param player     - the player whose claim was resolved.
+     * @param response   - Player.POINT, Player.PENALTY or Player.INVALID.
+     * @param cardsTaken - true iff an earlier claim took one of the cards of the claim (see Player.cardsTaken).
+     * @param now        - the current time (env.clock.nanos).
+     */
+    public synchronized void resolved(int player, int response, boolean cardsTaken, long now) {
+        if (response == Player.POINT) ++points[player];
+        else if (response == Player.PENALTY) ++penalties[player];
+        else if (cardsTaken) ++conflicts[player];
+        else ++voided[player];
+        latency[player] += now - claimTime[player];
+    }
+
+    /**
+     * @return - the number of claims waiting for the dealer.
+     */
+    public synchronized int pending() {
+        return pendingCount;
+    }
+
+    /**
+     * @return - a report of each player's claims, outcomes and mean claim latency.
+     */
+    public synchronized String fairnessReport() {
+        StringBuilder report = new StringBuilder("claim fairness:");
+        for (int player = 0; player < claims.length; ++player) {
+            long resolved = points[player] + penalties[player] + conflicts[player] + voided[player];
+            report.append(" player ").append(player + 1)
+                    .append(" [claims ").append(claims[player])
+                    .append(", points ").append(points[player])
+                    .append(", penalties ").append(penalties[player])
+                    .append(", lost conflicts ").append(conflicts[player])
+                    .append(", voided ").append(voided[player])
+                    .append(", mean latency ").append(resolved == 0 ? 0 : latency[player] / resolved / 1000)
+                    .append("us]");
+        }
+        return report.toString();
+    }
+
+    private int earliest() {
+        if (pendingCount == 0) return -1;
+        int earliest = -1;
+        for (int player = 0; player < pending.length; ++player)
+            if (pending[player] && (earliest == -1 || claimTime[player] - claimTime[earliest] < 0))
+                earliest = player;
+        return earliest;
+    }
+
+    private long windowNanos() {
+        return env.config.claimWindowMillis * 1_000_000;
+    }
+}
@@ -1,16 +1,24 @@
 package bguspl.set.ex;
 
+import bguspl.set.Config;
+import bguspl.set.ContentionProfiler;
+import bguspl.set.CountdownTimer;
 import bguspl.set.Env;
+import bguspl.set.Histogram;
+import bguspl.set.StatsStore;
+import bguspl.set.ThreadLogger;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Handler;
 
 /**
  * This class manages the dealer's threads and data
@@ -30,36 +38,151 @@ public class Dealer implements Runnable {
     
 
     /**
-     * The list of card ids that are left in the dealer's deck.
+     * The cards that are left in the dealer's deck.
      */
-    private final List<Integer> deck;
+    private final Deck deck;
+
+    /**
+     * Tracks whether the cards left in the game still contain a set.
+     */
+    private final SetOracle oracle;
+
+    /**
+     * Chooses the cards dealt so the table has enough sets (see config.refillSets).
+     */
+    private final SetRefill refill;
 
 
     /**
      * True iff game should be terminated.
      */
     private volatile boolean terminate;
-    private long roundTime;
-    //private long roundStartTime;
-    private long roundSystemTime;
-    public BlockingQueue<Player> playersQueue;
-    public boolean isReshuffling;
-    private boolean warn;
-    public long second=1000;
-    public long ten=10;
 
     /**
-     * The time when the dealer needs to reshuffle the deck due to turn timeout.
+     * True iff the game was played to its end (no sets left), and the winners announced at its end.
+     */
+    private volatile boolean finished;
+    private volatile int[] winners = new int[0];
+
+    /**
+     * Orders the players' claims by the time they were made (in sharded mode, only the claims spanning more than one
+     * region of the table).
+     */
+    public final ClaimArbiter arbiter;
+
+    /**
+     * The locks of the table regions: resolving a claim locks the regions of its slots, dealing and reshuffling lock
+     * all of them.
+     */
+    private final ReentrantLock[] regionLocks;
+
+    /**
+     * The claim validators of the table regions (none unless the table is sharded into more than one region).
+     */
+    private final RegionValidator[] validators;
+
+    /**
+     * A bit mask of all the table regions.
+     */
+    private final long allRegions;
+
+    private final Random random = new Random();
+
+    /**
+     * The threads of the game (dealer, players, computer players, countdown and region validators).
+     */
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+    /**
+     * The time it takes to validate a claim and to commit a legal one (in nanoseconds).
+     */
+    private final Histogram validationTime;
+    private final Histogram commitTime;
+
+    /**
+     * The number of times the table had no set, and the number of cards replaced for it (see config.noSetPolicy).
+     */
+    private final LongAdder deadTables;
+    private final LongAdder replacedCards;
+    private final LongAdder refillSwaps;
+
+    /**
+     * The phase of the table (dealing, playing or reshuffling), checked by the players before they use it.
+     */
+    public final PhaseGate gate = new PhaseGate();
+
+    /**
+     * Renders the countdown display (the dealer only publishes the reshuffle deadline to it).
+     */
+    private final CountdownTimer countdown;
+
+    /**
+     * Publishes the sets on the table as hints (see config.hints), off the dealer's thread.
+     */
+    private final HintService hints;
+
+    /**
+     * Samples the lock contention of the game threads (null unless config.contentionSampleMillis is positive).
+     */
+    private final ContentionProfiler profiler;
+
+    /**
+     * Saves the state of the game for crash recovery (null unless config.checkpointMillis is positive).
+     */
+    private final Checkpointer checkpointer;
+
+    /**
+     * The time added to the turn timeout, so the countdown starts by showing the whole timeout.
+     */
+    private static final long TURN_GRACE_MILLIS = 1000;
+
+    /**
+     * The time (env.clock) when the dealer needs to reshuffle the deck due to turn timeout.
      */
-    private long reshuffleTime = Long.MAX_VALUE;
+    private volatile long reshuffleTime = Long.MAX_VALUE;
 
     public Dealer(Env env, Table table, Player[] players) {
         this.env = env;
         this.table = table;
         this.players = players;
-        deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
-        playersQueue=new LinkedBlockingQueue<Player>();
-        warn=false;
+        deck = new Deck(env.config.deckSize, random);
+        oracle = new SetOracle(env, deck.cards());
+        refill = new SetRefill(env);
+        arbiter = new ClaimArbiter(env);
+        validationTime = env.metrics.histogram("claim.validation");
+        commitTime = env.metrics.histogram("claim.commit");
+        deadTables = env.metrics.counter("dealer.table.dead");
+        replacedCards = env.metrics.counter("dealer.table.replaced");
+        refillSwaps = env.metrics.counter("dealer.refill.swaps");
+        int regions = env.config.regions;
+        allRegions = regions == 64 ? -1L : (1L << regions) - 1;
+        regionLocks = new ReentrantLock[regions];
+        for (int i = 0; i < regions; i++)
+            regionLocks[i] = new ReentrantLock();
+        validators = new RegionValidator[regions > 1 ? regions : 0];
+        for (int i = 0; i < validators.length; i++)
+            validators[i] = new RegionValidator(this, i, new ClaimArbiter(env), env.clock);
+        countdown = new CountdownTimer(env.ui, env.clock, env.config.countdownRefreshMillis);
+        hints = new HintService(env, this::snapshot, HintSink.of(env));
+        checkpointer = env.config.checkpointMillis > 0 ? new Checkpointer(env, Paths.get(env.config.checkpointDir), Checkpointer.GAME) : null;
+        profiler = env.config.contentionSampleMillis > 0 ? new ContentionProfiler(this::threads, env.config.contentionSampleMillis) : null;
+        if (profiler != null) {
+            profiler.register(this, "dealer");
+            profiler.register(deck, "dealer.deck");
+            profiler.register(arbiter, "dealer.arbiter");
+            profiler.register(oracle, "dealer.oracle");
+            for (int i = 0; i < regionLocks.length; i++)
+                profiler.register(regionLocks[i], "region[" + i + "]");
+            for (RegionValidator validator : validators) {
+                profiler.register(validator, "region[" + validator.region + "].validator");
+                profiler.register(validator.arbiter, "region[" + validator.region + "].arbiter");
+            }
+            for (int i = 0; i < table.tokenLock.length; i++)
+                profiler.register(table.tokenLock[i], "table.slot[" + i + "]");
+            Handler[] handlers = env.logger.getHandlers();
+            for (int i = 0; i < handlers.length; i++)
+                profiler.register(handlers[i], "log." + handlers[i].getClass().getSimpleName() + "[" + i + "]");
+        }
     }
 
     /**
@@ -68,45 +191,96 @@ public class Dealer implements Runnable {
     @Override
     public void run() {
         env.logger.info("thread " + Thread.currentThread().getName() + " starting.");
+        registerThread(Thread.currentThread());
         for (Player p : players)
         {
-            Thread playerThread = new Thread(p);
+            Thread playerThread = new Thread(p, "player-" + p.id);
+            registerThread(playerThread);
             playerThread.start();
         }
+        // under virtual time nobody watches the countdown, and its refreshes would set the pace of the clock
+        ThreadLogger countdownThread = env.config.virtualTime ? null : new ThreadLogger(countdown, "countdown", env.logger);
+        if (countdownThread != null) {
+            registerThread(countdownThread);
+            countdownThread.startWithLog();
+        }
+        ThreadLogger hintThread = new ThreadLogger(hints, "hints", env.logger);
+        registerThread(hintThread);
+        hintThread.startWithLog();
+        ThreadLogger[] validatorThreads = new ThreadLogger[validators.length];
+        for (int i = 0; i < validators.length; i++) {
+            validatorThreads[i] = new ThreadLogger(validators[i], "region-" + i, env.logger);
+            registerThread(validatorThreads[i]);
+            validatorThreads[i].startWithLog();
+        }
+        ThreadLogger profilerThread = null;
+        if (profiler != null) {
+            for (Player p : players)
+                profiler.register(p, "player-" + p.id);
+            profilerThread = new ThreadLogger(profiler, "contention-sampler", env.logger);
+            profilerThread.setDaemon(true);
+            profilerThread.startWithLog();
+        }
+        ThreadLogger checkpointerThread = null;
+        if (checkpointer != null) {
+            checkpointerThread = new ThreadLogger(checkpointer, "checkpointer", env.logger);
+            registerThread(checkpointerThread);
+            checkpointerThread.startWithLog();
+        }
         while (!shouldFinish()) {
-            synchronized(table){
-                isReshuffling=true;
+            lockRegions(allRegions);
+            try {
+                gate.enter(PhaseGate.Phase.DEALING);
                 placeCardsOnTable();
-                if(env.config.hints){
-                    table.hints();
-                }
-                isReshuffling=false;
+                gate.enter(PhaseGate.Phase.PLAYING);
                 updateTimerDisplay(true); //changed from false to true
+            } finally {
+                unlockRegions(allRegions);
             }
+            hints.request();
             timerLoop();//when a timer loop is ending we need to stats over with a new cards on the table 
-            synchronized(table){
-                isReshuffling=true;
+            lockRegions(allRegions);
+            try {
+                gate.enter(PhaseGate.Phase.RESHUFFLING);
                 removeAllCardsFromTable();
+            } finally {
+                unlockRegions(allRegions);
             }
         }
+        finished = !terminate;
         announceWinners();
+        env.logger.info(arbiter.fairnessReport());
+        for (RegionValidator validator : validators)
+            env.logger.info("region " + validator.region + " " + validator.arbiter.fairnessReport());
         terminate();
+        try {
+            if (countdownThread != null) countdownThread.joinWithLog();
+            hintThread.joinWithLog();
+            for (ThreadLogger validatorThread : validatorThreads)
+                validatorThread.joinWithLog();
+            if (profilerThread != null) {
+                profiler.terminate();
+                profilerThread.joinWithLog();
+                env.logger.info(profiler.report());
+            }
+            if (checkpointerThread != null) {
+                checkpointer.terminate(finished);
+                checkpointerThread.joinWithLog();
+            }
+        } catch (InterruptedException ignored) {}
         env.logger.info("thread " + Thread.currentThread().getName() + " terminated.");
     }
     
   
     /**
-     * The inner loop of the dealer thread that runs as long as the countdown did not time out.
+     * The inner loop of the dealer thread that runs as long as the countdown did not time out (or the table has no set
+     * and is to be reshuffled, see config.noSetPolicy).
      */
     private void timerLoop() {
-        roundTime=env.config.turnTimeoutMillis;
-        roundSystemTime=System.currentTimeMillis();
-        reshuffleTime=roundSystemTime+env.config.turnTimeoutMillis+second;
-        while (!terminate && System.currentTimeMillis() < reshuffleTime) {
+        while (!terminate && env.clock.millis() < reshuffleTime) {
+            if (!ensureSetOnTable()) return;
             sleepUntilWokenOrTimeout();
-            updateTimerDisplay(false);
-            removeCardsFromTable();//checks if there are any sets that we need to deal with
-            placeCardsOnTable();//if there were any sets that go down, put a new cards instead. 
+            removeCardsFromTable();//checks if there are any sets that we need to deal with (and refills their slots)
         }
     }
 
@@ -115,6 +289,12 @@ public class Dealer implements Runnable {
      */
     public void terminate() {
         terminate=true;
+        gate.enter(PhaseGate.Phase.ENDED);
+        synchronized(this){notifyAll();}
+        countdown.terminate();
+        hints.terminate();
+        for (RegionValidator validator : validators)
+            validator.terminate();
         
         for (int i = players.length-1; i >= 0; i--) 
         {
@@ -130,60 +310,146 @@ public class Dealer implements Runnable {
      * @return true iff the game should be finished.
      */
     private boolean shouldFinish() {
-        return terminate || env.util.findSets(deck, 1).size() == 0;
+        return terminate || oracle.liveSets() == 0; // the cards in the deck and on the table (after restore)
     }
 
     /**
      * Checks cards should be removed from the table and removes them.
      */
     private void removeCardsFromTable() {
-        while(!playersQueue.isEmpty()){
-        Player playerNow=playersQueue.poll();
-        if(playerNow == null) 
-            return;
-        int[][] cardsAndSlots= table.getPlayerCardsAndSlots(playerNow.id);
-        for(int i = 0; i < cardsAndSlots[1].length; i++){
-            if(cardsAndSlots[1][i] == -1){
-                try{
-                    playerNow.dealerReponse.put(2);
-                } catch(Exception e){}
-                return;
+        resolveClaims(arbiter);
+    }
+
+    /**
+     * Resolves the ready claims of an arbiter, earliest first. Each claim locks the table regions of its slots, so
+     * claims in different regions are resolved in parallel (by the region validators).
+     *
+     * @param arbiter - the arbiter holding the claims.
+     */
+    void resolveClaims(ClaimArbiter arbiter) {
+        for (int id = arbiter.poll(env.clock.nanos()); id != -1; id = arbiter.poll(env.clock.nanos())) {
+            Player playerNow = players[id];
+            long regions = table.tokenRegions(id);
+            int response;
+            lockRegions(regions);
+            try {
+                response = resolveClaim(playerNow, regions);
+                arbiter.resolved(id, response, playerNow.cardsTaken, env.clock.nanos());
+                playerNow.cardsTaken = false;
+                if (response == Player.POINT)
+                    placeCards(playerNow.claimSlots, playerNow.claimCards);
+                playerNow.respond(response); // only once its claim slots are refilled: the player reuses them
+            } finally {
+                unlockRegions(regions);
             }
-        }
-        boolean test = env.util.testSet(cardsAndSlots[0]);
-        if (test){
-            for (int i=0;i<cardsAndSlots[1].length;i++){
-                table.removeCard(cardsAndSlots[1][i]);
+            if (response == Player.POINT) {
+                hints.request();
+                if (env.config.noSetPolicy != NoSetPolicy.NONE) notifyDealer(playerNow); // to check the new cards
             }
-            try{
-                playerNow.dealerReponse.put(0);//point
-                roundTime=env.config.turnTimeoutMillis;
-                roundSystemTime=System.currentTimeMillis();
-                reshuffleTime=roundSystemTime+env.config.turnTimeoutMillis+second;
-                updateTimerDisplay(true);
-            } catch(Exception e){}
-        }
-        else{
-            try{
-                playerNow.dealerReponse.put(1);//penalty
-            } catch(Exception e){}
         }
+    }
+
+    /**
+     * Checks a player's claim and removes the cards of the set if it is legal.
+     *
+     * @param playerNow - the player claiming a set.
+     * @param regions   - the table regions locked for the claim.
+     * @return - Player.POINT, Player.PENALTY or Player.INVALID (if some of the cards left the table, e.g. taken by an
+     * earlier claim).
+     */
+    private int resolveClaim(Player playerNow, long regions) {
+        long start = System.nanoTime();
+        boolean valid = table.getPlayerCardsAndSlots(playerNow.id, playerNow.claimCards, playerNow.claimSlots)
+                && (table.tokenRegions(playerNow.id) & ~regions) == 0;
+        boolean legal = valid && env.util.testSet(playerNow.claimCards);
+        long validated = System.nanoTime();
+        validationTime.record(validated - start);
+        if (!valid)
+            return Player.INVALID;
+        if (!legal)
+            return Player.PENALTY;
+        for (Player other : players)
+            if (other != null && other != playerNow)
+                for (int slot : playerNow.claimSlots)
+                    if (table.contains(other.id, slot)) other.cardsTaken = true;
+        for (int i=0;i<playerNow.claimSlots.length;i++){
+            table.removeCard(playerNow.claimSlots[i]);
+            oracle.remove(playerNow.claimCards[i]);
+            if (checkpointer != null) checkpointer.discarded(playerNow.claimSlots[i]);
         }
+        updateTimerDisplay(true);
+        commitTime.record(System.nanoTime() - validated);
+        return Player.POINT;
+    }
+
+    /**
+     * Locks the given table regions (always in ascending order, to avoid deadlocks).
+     *
+     * @param regions - a bit mask of table regions.
+     */
+    private void lockRegions(long regions) {
+        for (int i = 0; i < regionLocks.length; i++)
+            if ((regions & (1L << i)) != 0)
+                regionLocks[i].lock();
     }
-        
-    
 
+    private void unlockRegions(long regions) {
+        for (int i = regionLocks.length - 1; i >= 0; i--)
+            if ((regions & (1L << i)) != 0)
+                regionLocks[i].unlock();
+    }
 
+    /**
+     * Places random cards from the deck in the given (empty) slots.
+     *
+     * @param slots - the slots to fill.
+     * @param cards - receives the cards placed (reused, so refilling the slots of a claim allocates nothing).
+     */
+    private void placeCards(int[] slots, int[] cards) {
+        int count;
+        synchronized(deck){
+            count = drawCards(cards, slots.length);
+            if (checkpointer != null)
+                for (int i = 0; i < count; i++)
+                    checkpointer.dealt(cards[i], slots[i]);
+        }
+        for (int i = 0; i < count; i++)
+            table.placeCard(cards[i], slots[i]);
+    }
 
     private void randomFromDeck(List<Integer> slots){
-        if(slots.size()>0){//the number of the free slots
-            while( !slots.isEmpty() &&!deck.isEmpty()){
-                Random r = new Random();
-                int card=deck.remove(r.nextInt(deck.size()));
-                int slot= slots.remove (r.nextInt(slots.size()));
-                table.placeCard(card,slot);
+        int[] cards = new int[slots.size()];
+        int[] chosen = new int[slots.size()];
+        int count;
+        synchronized(deck){
+            count = drawCards(cards, slots.size());
+            for (int i = 0; i < count; i++) {
+                chosen[i] = slots.remove(random.nextInt(slots.size()));
+                if (checkpointer != null) checkpointer.dealt(cards[i], chosen[i]);
             }
         }
+        for (int i = 0; i < count; i++)
+            table.placeCard(cards[i], chosen[i]);
+    }
+
+    /**
+     * Draws cards for the free slots of the table: at random, then swapped until the table has config.refillSets sets
+     * (if the deck allows, see SetRefill). Called while locking the deck.
+     *
+     * @param cards - receives the cards drawn.
+     * @param count - the number of free slots.
+     * @return - the number of cards drawn (fewer than count if the deck runs out).
+     */
+    private int drawCards(int[] cards, int count) {
+        int drawn = Math.min(count, deck.size());
+        for (int i = 0; i < drawn; i++)
+            cards[i] = deck.draw();
+        if (env.config.refillSets > 0 && drawn > 0) {
+            int[] dealt = Arrays.copyOf(cards, drawn); // the refill searches the table, so it allocates anyway
+            refillSwaps.add(refill.refill(table.cards(), dealt, deck, random));
+            System.arraycopy(dealt, 0, cards, 0, drawn);
+        }
+        return drawn;
     }
 
     /**
@@ -196,38 +462,98 @@ public class Dealer implements Runnable {
     }
 
     /**
-     * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
+     * Applies the no-set policy (config.noSetPolicy) if the cards on the table contain no set.
+     *
+     * @return - false iff the table is to be reshuffled right away.
+     */
+    private boolean ensureSetOnTable() {
+        NoSetPolicy policy = env.config.noSetPolicy;
+        if (policy == NoSetPolicy.NONE || oracle.hasSets(table.cards())) return true;
+        deadTables.increment();
+        if (policy == NoSetPolicy.RESHUFFLE) return false;
+
+        boolean replaced;
+        lockRegions(allRegions);
+        try {
+            gate.enter(PhaseGate.Phase.DEALING);
+            replaced = replaceCards();
+        } finally {
+            gate.enter(PhaseGate.Phase.PLAYING);
+            unlockRegions(allRegions);
+        }
+        if (replaced) hints.request();
+        return replaced;
+    }
+
+    /**
+     * Replaces as few cards on the table as possible with cards from the deck, so the table has a set (called with all
+     * the table regions locked). The slots are chosen by SetReplacement.
+     *
+     * @return - true iff the table has a set.
+     */
+    private boolean replaceCards() {
+        List<Integer> cards = table.cards();
+        if (oracle.hasSets(cards)) return true; // a claim changed the table since it was checked
+        int[] set;
+        synchronized(deck){
+            set = oracle.closestSet(cards);
+        }
+        if (set == null) return false; // no set is left in the game
+
+        int[] slots = new int[env.config.tableSize];
+        for (int slot = 0; slot < slots.length; slot++)
+            slots[slot] = table.slotToCardInt(slot);
+        int[] chosen = SetReplacement.choose(slots, set, random);
+        if (chosen == null) return false;
+        for (int i = 0; i < set.length; i++) {
+            int card = set[i];
+            int slot = chosen[i];
+            if (slot == -1) continue;
+            if (slots[slot] != -1) {
+                table.removeCard(slot);
+                synchronized(deck){
+                    deck.add(slots[slot]);
+                    if (checkpointer != null) checkpointer.returned(slot);
+                }
+            }
+            synchronized(deck){
+                deck.remove(card);
+                if (checkpointer != null) checkpointer.dealt(card, slot);
+            }
+            table.placeCard(card, slot);
+            replacedCards.increment();
+        }
+        updateTimerDisplay(true);
+        return true;
+    }
+
+    /**
+     * Sleep until the reshuffle deadline, until the thread is awakened by a player claiming a set, or until the
+     * claim window of a pending claim passes.
      */
     private void sleepUntilWokenOrTimeout() {
-        long sleepTime = reshuffleTime - System.currentTimeMillis();
-        if(sleepTime > env.config.turnTimeoutWarningMillis){
-            sleepTime = sleepTime % second+ten;
-            if(sleepTime != 0){
-                try {
-                    synchronized(this) {wait(sleepTime);}
+        long sleepTime = reshuffleTime - env.clock.millis();
+        if(sleepTime > 0){
+            try {
+                synchronized(this) {
+                    long claimTime = arbiter.millisUntilReady(env.clock.nanos());
+                    if(claimTime != 0) env.clock.await(this, claimTime < 0 ? sleepTime : Math.min(claimTime, sleepTime));
                 }
-                catch(InterruptedException InterruptedException){}   
             }
+            catch(InterruptedException ignored){}
         }
     }
 
     /**
-     * Reset and/or update the countdown and the countdown display.
+     * Reset the countdown and publish the new deadline to the countdown display.
+     * The display itself is rendered by the countdown timer thread.
      */
     private void updateTimerDisplay(boolean reset) {
         if(reset){
-            env.ui.setCountdown(env.config.turnTimeoutMillis  , false);
-            reshuffleTime = env.config.turnTimeoutMillis +second  + System.currentTimeMillis();
-        }
-        
-        else {
-            roundTime=reshuffleTime - System.currentTimeMillis();
-            if (roundTime < 0 || roundTime<ten) {roundTime = 0;}
-            roundSystemTime=System.currentTimeMillis();
-            warn = (roundTime <= env.config.turnTimeoutWarningMillis);         
-            env.ui.setCountdown(roundTime, warn);
+            Config config = env.config;
+            reshuffleTime = config.turnTimeoutMillis + TURN_GRACE_MILLIS + env.clock.millis();
+            countdown.setDeadline(reshuffleTime, config.turnTimeoutWarningMillis);
         }
-       
     }
 
     /**
@@ -238,7 +564,10 @@ public class Dealer implements Runnable {
             int card = table.slotToCardInt(i);
             if (card!=-1){ 
                 table.removeCard(i);
-                deck.add(card);
+                synchronized(deck){
+                    deck.add(card);
+                    if (checkpointer != null) checkpointer.returned(i);
+                }
             }
           
         }
@@ -264,11 +593,165 @@ public class Dealer implements Runnable {
                 
             }
         }
-        env.ui.announceWinner(Arrays.copyOfRange(winners,0,countWinners));
+        this.winners = Arrays.copyOfRange(winners,0,countWinners);
+        env.ui.announceWinner(this.winners);
     }
         
     
 
+    /**
+     * @return - true iff the game was played to its end (no sets left), rather than terminated.
+     */
+    public boolean finished() {
+        return finished;
+    }
+
+    /**
+     * @return - the statistics of each player in the game (called once the game is over).
+     */
+    public List<StatsStore.PlayerStats> results() {
+        List<StatsStore.PlayerStats> results = new ArrayList<>(players.length);
+        for (Player player : players) {
+            boolean won = false;
+            for (int winner : winners)
+                won |= winner == player.id;
+            results.add(player.result(won));
+        }
+        return results;
+    }
+
+    /**
+     * Called by a player when his score changes.
+     *
+     * @param player - the player.
+     * @param score  - the player's new score.
+     */
+    void scored(Player player, int score) {
+        if (checkpointer != null) checkpointer.scored(player.id, score);
+    }
+
+    /**
+     * Resumes a recovered game (called once the players are created, before the dealer thread starts): the deck, the
+     * cards on the table and the scores are set as they were saved, and the cards that left the game are left out.
+     *
+     * @param state - the recovered state (see Checkpointer.recover).
+     */
+    public void restore(Checkpointer.State state) {
+        synchronized(deck){
+            deck.clear();
+            for (int card = state.deck.nextSetBit(0); card >= 0; card = state.deck.nextSetBit(card + 1))
+                deck.add(card);
+        }
+        for (int slot = 0; slot < state.slots.length; slot++)
+            if (state.slots[slot] != -1)
+                table.placeCard(state.slots[slot], slot);
+        for (int card = 0; card < env.config.deckSize; card++)
+            if (!state.deck.get(card) && table.cardToSlot[card] == null)
+                oracle.remove(card);
+        for (Player player : players)
+            player.restoreScore(state.scores[player.id]);
+        if (checkpointer != null) checkpointer.reset(state);
+    }
+
+    /**
+     * Called by a player when he places his last token.
+     *
+     * @param player - the player claiming a set.
+     * @param time   - the time (env.clock.nanos) in which the last token was placed.
+     */
+    public void claim(Player player, long time) {
+        long regions = table.tokenRegions(player.id);
+        if (validators.length > 0 && Long.bitCount(regions) == 1) {
+            validators[Long.numberOfTrailingZeros(regions)].claim(player.id, time);
+        } else {
+            arbiter.submit(player.id, time);
+            notifyDealer(player);
+        }
+    }
+
+    /**
+     * Registers a thread of the game (for monitoring), and enrolls it with the game's clock.
+     *
+     * @param thread - a thread created for the game.
+     */
+    void registerThread(Thread thread) {
+        threads.add(thread);
+        env.clock.register(thread);
+    }
+
+    /**
+     * @return - the threads of the game (dealer, players, computer players, countdown and region validators).
+     */
+    public List<Thread> threads() {
+        return Collections.unmodifiableList(threads);
+    }
+
+    /**
+     * @return - the number of cards left in the deck (not including the cards on the table). Does not lock the deck,
+     * so it may be called while holding the lock of the user interface (see NetworkUserInterface.snapshot).
+     */
+    public int deckSize() {
+        return deck.size();
+    }
+
+    /**
+     * @return - the number of cards on the table.
+     */
+    public int cardsOnTable() {
+        return table.countCards();
+    }
+
+    /**
+     * @return - the number of legal sets among the cards on the table.
+     */
+    public int setsOnTable() {
+        return table.countSets();
+    }
+
+    /**
+     * @return - the number of players currently frozen (after a point or a penalty).
+     */
+    public int frozenPlayers() {
+        int frozen = 0;
+        for (Player player : players)
+            if (player != null && player.isFrozen())
+                ++frozen;
+        return frozen;
+    }
+
+    /**
+     * @return - the number of claims waiting to be resolved.
+     */
+    public int pendingClaims() {
+        int pending = arbiter.pending();
+        for (RegionValidator validator : validators)
+            pending += validator.arbiter.pending();
+        return pending;
+    }
+
+    /**
+     * @return - the number of milliseconds until the reshuffle deadline (-1 if there is none).
+     */
+    public long countdownMillis() {
+        long deadline = reshuffleTime;
+        return deadline == Long.MAX_VALUE ? -1 : Math.max(0, deadline - env.clock.millis());
+    }
+
+    /**
+     * Takes a snapshot of the game without blocking it: the board and tokens are copied consistently (see
+     * Table.snapshot), the scores, deck size and countdown as they are right after.
+     * @return - the snapshot.
+     */
+    public GameSnapshot snapshot() {
+        int[] cards = new int[env.config.tableSize];
+        int[][] tokens = new int[players.length][env.config.featureSize];
+        long version = table.snapshot(cards, tokens);
+        int[] scores = new int[players.length];
+        for (int i = 0; i < players.length; i++)
+            scores[i] = players[i].score();
+        return new GameSnapshot(version, cards, tokens, scores, deckSize(), countdownMillis());
+    }
+
     public void notifyDealer (Player player){
         synchronized(this){notifyAll();}
 
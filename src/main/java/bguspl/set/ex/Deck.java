@@ -0,0 +1,122 @@
+package bguspl.set.ex;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The cards left in the dealer's deck, dealt in random order.
+ * Not thread safe: the dealer locks the deck while using it, except to read its size (see size).
+ */
+public class Deck {
+
+    private final List<Integer> cards;
+
+    /**
+     * The cards in the deck, by id (for lookups).
+     */
+    private final BitSet members = new BitSet();
+
+    /**
+     * A read-only view of the cards.
+     */
+    private final List<Integer> view;
+
+    private final Random random;
+
+    /**
+     * The number of cards in the deck, readable without locking the deck.
+     */
+    private volatile int size;
+
+    /**
+     * Creates a full deck.
+     *
+     * @param size   - the number of cards (ids 0 to size - 1).
+     * @param random - chooses the cards dealt.
+     */
+    public Deck(int size, Random random) {
+        this.cards = new ArrayList<>(size);
+        for (int card = 0; card < size; card++)
+            cards.add(card);
+        members.set(0, size);
+        this.size = size;
+        this.view = Collections.unmodifiableList(cards);
+        this.random = random;
+    }
+
+    /**
+     * Removes a random card from the deck.
+     *
+     * @return - the card dealt, or -1 if the deck is empty.
+     */
+    public int draw() {
+        if (cards.isEmpty()) return -1;
+        int card = cards.remove(random.nextInt(cards.size()));
+        members.clear(card);
+        size = cards.size();
+        return card;
+    }
+
+    /**
+     * Returns a card to the deck.
+     *
+     * @param card - the card.
+     */
+    public void add(int card) {
+        cards.add(card);
+        members.set(card);
+        size = cards.size();
+    }
+
+    /**
+     * Removes a given card from the deck.
+     *
+     * @param card - the card.
+     * @return - true iff the card was in the deck.
+     */
+    public boolean remove(int card) {
+        if (!members.get(card)) return false;
+        members.clear(card);
+        boolean removed = cards.remove(Integer.valueOf(card));
+        size = cards.size();
+        return removed;
+    }
+
+    /**
+     * @param card - a card.
+     * @return - true iff the card is in the deck.
+     */
+    public boolean contains(int card) {
+        return card >= 0 && members.get(card);
+    }
+
+    /**
+     * Removes all the cards from the deck.
+     */
+    public void clear() {
+        cards.clear();
+        members.clear();
+        size = 0;
+    }
+
+    /**
+     * @return - the number of cards in the deck (may be read without locking the deck).
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return cards.isEmpty();
+    }
+
+    /**
+     * @return - a read-only view of the cards in the deck.
+     */
+    public List<Integer> cards() {
+        return view;
+    }
+}
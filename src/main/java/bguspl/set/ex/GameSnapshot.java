@@ -0,0 +1,47 @@
+package bguspl.set.ex;
+
+/**
+ * The state of a game at one moment: the board, the tokens, the scores, the deck size and the countdown.
+ * Taken without blocking the game (see Dealer.snapshot).
+ */
+public class GameSnapshot {
+
+    /**
+     * The version of the table the snapshot was taken from (see Table.version).
+     */
+    public final long version;
+
+    /**
+     * The card in each slot (-1 if none).
+     */
+    public final int[] cards;
+
+    /**
+     * The slot of each token of each player (-1 if none).
+     */
+    public final int[][] tokens;
+
+    /**
+     * The score of each player.
+     */
+    public final int[] scores;
+
+    /**
+     * The number of cards left in the deck.
+     */
+    public final int deckSize;
+
+    /**
+     * The number of milliseconds left until the reshuffle deadline (-1 if there is none).
+     */
+    public final long countdownMillis;
+
+    GameSnapshot(long version, int[] cards, int[][] tokens, int[] scores, int deckSize, long countdownMillis) {
+        this.version = version;
+        this.cards = cards;
+        this.tokens = tokens;
+        this.scores = scores;
+        this.deckSize = deckSize;
+        this.countdownMillis = countdownMillis;
+    }
+}
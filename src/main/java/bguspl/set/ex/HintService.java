@@ -0,0 +1,119 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+import bguspl.set.Histogram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Finds the sets on the table and publishes them as hints (if config.hints is set), on its own thread: the game only
+ * hands it a snapshot of the board (see Dealer.snapshot), which is taken without blocking the game, and goes on. If the
+ * board changes again before the hints of the last one are published, only the newest board is searched.
+ */
+public class HintService implements Runnable {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * Takes a snapshot of the board.
+     */
+    private final Supplier<GameSnapshot> boards;
+
+    private final HintSink sink;
+
+    /**
+     * The newest board to search (null if it was searched already).
+     */
+    private final AtomicReference<GameSnapshot> pending = new AtomicReference<>();
+
+    /**
+     * The time it takes to find and publish the sets of a board (in nanoseconds).
+     */
+    private final Histogram searchTime;
+
+    /**
+     * True iff the service should be terminated.
+     */
+    private volatile boolean terminate;
+
+    /**
+     * @param env    - the game environment object.
+     * @param boards - takes a snapshot of the board.
+     * @param sink   - where the hints are published.
+     */
+    public HintService(Env env, Supplier<GameSnapshot> boards, HintSink sink) {
+        this.env = env;
+        this.boards = boards;
+        this.sink = sink;
+        searchTime = env.metrics.histogram("hints.search");
+    }
+
+    /**
+     * Asks for the hints of the board as it is now (called when cards are placed on the table).
+     */
+    public void request() {
+        if (!env.config.hints) return;
+        pending.set(boards.get());
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * The hint thread starts here (publishes the hints of the boards requested until terminated).
+     */
+    @Override
+    public void run() {
+        while (!terminate) {
+            GameSnapshot board = pending.getAndSet(null);
+            if (board == null) {
+                synchronized (this) {
+                    try {
+                        if (pending.get() == null && !terminate) wait();
+                    } catch (InterruptedException ignored) {}
+                }
+                continue;
+            }
+            long start = System.nanoTime();
+            publish(board);
+            searchTime.record(System.nanoTime() - start);
+        }
+    }
+
+    private void publish(GameSnapshot board) {
+        int[] slotOf = new int[env.config.deckSize];
+        List<Integer> cards = new ArrayList<>(board.cards.length);
+        for (int slot = 0; slot < board.cards.length; slot++) {
+            if (board.cards[slot] == -1) continue;
+            cards.add(board.cards[slot]);
+            slotOf[board.cards[slot]] = slot;
+        }
+        List<int[]> sets = env.util.findSets(cards, Integer.MAX_VALUE);
+        List<int[]> slots = new ArrayList<>(sets.size());
+        for (int[] set : sets) {
+            int[] setSlots = new int[set.length];
+            for (int i = 0; i < set.length; i++)
+                setSlots[i] = slotOf[set[i]];
+            Arrays.sort(setSlots);
+            slots.add(setSlots);
+        }
+        sink.publish(board, slots, sets);
+    }
+
+    /**
+     * Called when the game is terminated.
+     */
+    public void terminate() {
+        terminate = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+}
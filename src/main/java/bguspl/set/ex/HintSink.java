@@ -0,0 +1,43 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Where the hints about the sets on the table are published (see HintService and config.hintSink).
+ */
+public interface HintSink {
+
+    /**
+     * Publishes the sets found on a board.
+     *
+     * @param board - the board the sets were found on.
+     * @param slots - the slots of the cards of each set, in ascending order.
+     * @param sets  - the cards of each set.
+     */
+    void publish(GameSnapshot board, List<int[]> slots, List<int[]> sets);
+
+    /**
+     * @param env - the game environment object.
+     * @return - the sink named by config.hintSink: "log" for the game log, anything else for the console.
+     */
+    static HintSink of(Env env) {
+        return "log".equals(env.config.hintSink) ? lines(env, env.logger::info) : lines(env, System.out::println);
+    }
+
+    /**
+     * @param env  - the game environment object.
+     * @param sink - receives a line for each set.
+     * @return - a sink writing a line for each set, with its slots and the features of its cards.
+     */
+    static HintSink lines(Env env, Consumer<String> sink) {
+        return (board, slots, sets) -> {
+            for (int i = 0; i < sets.size(); i++)
+                sink.accept("Hint: Set found: slots: " + Arrays.toString(slots.get(i))
+                        + " features: " + Arrays.deepToString(env.util.cardsToFeatures(sets.get(i))));
+        };
+    }
+}
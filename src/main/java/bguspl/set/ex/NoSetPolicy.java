@@ -0,0 +1,24 @@
+package bguspl.set.ex;
+
+/**
+ * What the dealer does when the cards on the table contain no set (see config.noSetPolicy). The table is checked after
+ * every deal and every claimed set, against the cards' set-existence cache (see SetOracle.hasSets).
+ */
+public enum NoSetPolicy {
+
+    /**
+     * Waits for the turn to time out, as if the table had a set.
+     */
+    NONE,
+
+    /**
+     * Returns all the cards to the deck and deals again right away.
+     */
+    RESHUFFLE,
+
+    /**
+     * Replaces as few cards on the table as possible with cards from the deck, so the table has a set (or reshuffles
+     * if no set is left in the game).
+     */
+    REPLACE
+}
@@ -0,0 +1,118 @@
+package bguspl.set.ex;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The phase of the table, which the dealer moves through and the players check before using the table. The phase and
+ * the number of phase changes so far are kept in one state word, so checking the phase is a single volatile read, and
+ * a stamp (the state word read while playing) tells whether the phase has changed since: a player that acted on the
+ * table with a stamp that is no longer valid knows the dealer may have dealt or reshuffled in the meantime.
+ * Threads waiting for play to resume are parked, and unparked when it does.
+ */
+public class PhaseGate {
+
+    /**
+     * The phases of the table.
+     */
+    public enum Phase {
+        /**
+         * The dealer is placing cards on the table.
+         */
+        DEALING,
+        /**
+         * The players may use the table.
+         */
+        PLAYING,
+        /**
+         * The dealer is returning the cards on the table to the deck.
+         */
+        RESHUFFLING,
+        /**
+         * The game is over (final: the phase does not change anymore).
+         */
+        ENDED
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * The number of phase changes so far (shifted left by 2) and the ordinal of the phase (the 2 low bits).
+     */
+    private final AtomicLong state = new AtomicLong(Phase.DEALING.ordinal());
+
+    /**
+     * The threads waiting for play to resume.
+     */
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @return - the current phase.
+     */
+    public Phase phase() {
+        return phase(state.get());
+    }
+
+    private static Phase phase(long state) {
+        return PHASES[(int) (state & 3)];
+    }
+
+    /**
+     * @return - a stamp of the current playing phase, or 0 if the table is not playing.
+     */
+    public long playing() {
+        long stamp = state.get();
+        return phase(stamp) == Phase.PLAYING ? stamp : 0;
+    }
+
+    /**
+     * @param stamp - a stamp returned by playing or awaitPlaying.
+     * @return - true iff the phase has not changed since the stamp was taken.
+     */
+    public boolean validate(long stamp) {
+        return stamp != 0 && state.get() == stamp;
+    }
+
+    /**
+     * Waits (parked) until the table is playing or the game is over.
+     *
+     * @return - a stamp of the playing phase, or 0 if the game is over.
+     * @throws InterruptedException - if the thread is interrupted while waiting.
+     */
+    public long awaitPlaying() throws InterruptedException {
+        long stamp = playing();
+        if (stamp != 0 || phase() == Phase.ENDED) return stamp;
+        Thread thread = Thread.currentThread();
+        waiters.add(thread);
+        try {
+            while (true) {
+                stamp = state.get();
+                if (phase(stamp) == Phase.PLAYING) return stamp;
+                if (phase(stamp) == Phase.ENDED) return 0;
+                if (Thread.interrupted()) throw new InterruptedException();
+                LockSupport.park(this);
+            }
+        } finally {
+            waiters.remove(thread);
+        }
+    }
+
+    /**
+     * Moves the table to a phase (nothing changes once the game is over), and wakes the waiting threads if play
+     * resumes or the game is over.
+     *
+     * @param phase - the new phase.
+     */
+    public void enter(Phase phase) {
+        long current;
+        do {
+            current = state.get();
+            if (phase(current) == Phase.ENDED) return;
+        } while (!state.compareAndSet(current, ((current >>> 2) + 1) << 2 | phase.ordinal()));
+        if (phase == Phase.PLAYING || phase == Phase.ENDED)
+            for (Thread waiter : waiters)
+                LockSupport.unpark(waiter);
+    }
+}
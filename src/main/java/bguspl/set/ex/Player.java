@@ -1,9 +1,11 @@
 package bguspl.set.ex;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
 import bguspl.set.Env;
+import bguspl.set.Histogram;
+import bguspl.set.StatsStore;
 
 /**
  * This class manages the players' threads and data
@@ -17,8 +19,37 @@ public class Player implements Runnable {
      * The game environment object.
      */
     private final Env env;
-    protected final BlockingQueue<Integer> dealerReponse;
     private final BlockingQueue<Integer> keyPressQueue;
+
+    /**
+     * The dealer's responses to a claim.
+     */
+    public static final int POINT = 0;
+    public static final int PENALTY = 1;
+    public static final int INVALID = 2; // the tokens of the claim are no longer all on cards
+    private static final int NO_RESPONSE = -1;
+
+    /**
+     * The time between two updates of the freeze time shown.
+     */
+    private static final long FREEZE_DISPLAY_MILLIS = 1000;
+
+    /**
+     * The dealer's response to the pending claim (NO_RESPONSE if none yet).
+     */
+    private int response = NO_RESPONSE;
+
+    /**
+     * The cards and slots of the pending claim (preallocated, used by the dealer until it responds to the claim).
+     */
+    protected final int[] claimCards;
+    protected final int[] claimSlots;
+
+    /**
+     * True iff an earlier claim took one of the cards the player has tokens on, since he last placed a token (set by
+     * the dealer): an invalid claim of the player then lost a conflict, rather than being voided by the dealer.
+     */
+    volatile boolean cardsTaken;
     /**
      * Game entities.
      */
@@ -32,7 +63,7 @@ public class Player implements Runnable {
     /**
      * The thread representing the current player.
      */
-    private Thread playerThread;
+    private volatile Thread playerThread;
 
     /**
      * The thread of the AI (computer) player (an additional thread used to generate key presses).
@@ -44,6 +75,11 @@ public class Player implements Runnable {
      */
     private final boolean human;
 
+    /**
+     * The strategy of the computer player (null for a human player).
+     */
+    private final Strategy strategy;
+
     /**
      * True iff game should be terminated.
      */
@@ -51,10 +87,26 @@ public class Player implements Runnable {
     /**
      * The current score of the player.
      */
-    private int score;
+    private volatile int score;
     private Dealer dealer;
-    private boolean panelty;
-    private boolean point;
+    private volatile boolean panelty;
+    private volatile boolean point;
+
+    /**
+     * The key presses received, and the ones dropped (frozen, dealing or reshuffling, or too many pending).
+     */
+    private final LongAdder keysPressed;
+    private final LongAdder keysDropped;
+
+    /**
+     * The statistics of the player in this game: his penalties, the total time it took him to find his sets (each
+     * from the start of the game or the end of his previous point freeze, in nanoseconds), and the time from the last
+     * card dealt to each of his claims.
+     */
+    private volatile int penalties;
+    private volatile long setNanos;
+    private long searchStart;
+    private final Histogram reactionTimes = new Histogram();
 
     /**
      * The class constructor.
@@ -66,15 +118,30 @@ public class Player implements Runnable {
      * @param human  - true iff the player is a human player (i.e. input is provided manually, via the keyboard).
      */
     public Player(Env env, Dealer dealer, Table table, int id, boolean human) {
+        this(env, dealer, table, id, human ? null : Strategy.RANDOM);
+    }
+
+    /**
+     * @param env      - the environment object.
+     * @param dealer   - the dealer object.
+     * @param table    - the table object.
+     * @param id       - the id of the player.
+     * @param strategy - the strategy of the computer player (null for a human player).
+     */
+    public Player(Env env, Dealer dealer, Table table, int id, Strategy strategy) {
         this.env = env;
         this.dealer=dealer;
         this.table = table;
         this.id = id;
-        this.human = human;
+        this.human = strategy == null;
+        this.strategy = strategy;
         this.keyPressQueue=new LinkedBlockingQueue<Integer>(env.config.featureSize);
-        this.dealerReponse=new LinkedBlockingQueue<Integer>(env.config.featureSize);
+        this.claimCards=new int[env.config.featureSize];
+        this.claimSlots=new int[env.config.featureSize];
         this.panelty=false;
         this.point=false;
+        this.keysPressed=env.metrics.counter("input.keys");
+        this.keysDropped=env.metrics.counter("input.dropped");
     }
 
     /**
@@ -83,6 +150,7 @@ public class Player implements Runnable {
     @Override
     public void run() {
         playerThread = Thread.currentThread();
+        searchStart = env.clock.nanos();
         env.logger.info("thread " + Thread.currentThread().getName() + " starting.");
         if (!human) {
             createArtificialIntelligence();
@@ -93,6 +161,14 @@ public class Player implements Runnable {
             try{
                 
                 Integer slot=keyPressQueue.take();
+                long stamp = dealer.gate.playing();
+                if (stamp == 0) {
+                    if (env.config.reshuffleKeyPolicy == ReshuffleKeyPolicy.DROP) {
+                        keysDropped.increment();
+                        continue;
+                    }
+                    stamp = dealer.gate.awaitPlaying();
+                }
                 if(table.contains(id,(Integer)slot))
                 {
                     
@@ -102,18 +178,26 @@ public class Player implements Runnable {
                 else{
                    
                         if(!table.isTokenFull(id)){
+                            cardsTaken = false;
                             table.placeToken(id, slot);
+                            if (!dealer.gate.validate(stamp)) { // the dealer started dealing or reshuffling meanwhile
+                                table.removeToken(id, slot);
+                                keysDropped.increment();
+                                continue;
+                            }
                         
                             if (table.isTokenFull(id)){
                              
-                                dealer.playersQueue.add(this);
-
-                                dealer.notifyDealer(this);
+                                long claimTime = env.clock.nanos();
+                                reactionTimes.record(claimTime - table.dealtAt());
+                                dealer.claim(this, claimTime);
                              
-                                Integer answer = dealerReponse.take();
-                                if(answer == 0){
+                                int answer = awaitResponse();
+                                if(answer == POINT){
+                                    setNanos += claimTime - searchStart;
                                     point();
-                                } else if(answer == 1){
+                                    searchStart = env.clock.nanos();
+                                } else if(answer == PENALTY){
                                     penalty();
                                 }
                    
@@ -128,23 +212,48 @@ public class Player implements Runnable {
         env.logger.info("thread " + Thread.currentThread().getName() + " terminated.");
     }
 
+    /**
+     * Called by the dealer to respond to the player's pending claim.
+     *
+     * @param response - POINT, PENALTY or INVALID.
+     */
+    synchronized void respond(int response) {
+        this.response = response;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the dealer's response to the player's pending claim.
+     *
+     * @return - POINT, PENALTY or INVALID.
+     * @throws InterruptedException - if the player was interrupted while waiting (i.e. terminated).
+     */
+    private synchronized int awaitResponse() throws InterruptedException {
+        while (response == NO_RESPONSE)
+            wait();
+        int answer = response;
+        response = NO_RESPONSE;
+        return answer;
+    }
+
     /**
      * Creates an additional thread for an AI (computer) player. The main loop of this thread repeatedly generates
      * key presses. If the queue of key presses is full, the thread waits until it is not full.
      */
     private void createArtificialIntelligence() {
-        // note: this is a very, very smart AI (!)
         aiThread = new Thread(() -> {
             env.logger.info("thread " + Thread.currentThread().getName() + " starting.");
-            Random r = new Random();
+            IntSupplier keys = strategy.keys(env, table, id);
             while (!terminate) {
-                keyPressed(r.nextInt(env.config.tableSize));
                 try {
-                    synchronized (this) { wait(2); }
+                    if (dealer.gate.playing() == 0) dealer.gate.awaitPlaying();
+                    keyPressed(keys.getAsInt());
+                    synchronized (this) { env.clock.await(this, 2); }
                 } catch (InterruptedException ignored) {}
             }
             env.logger.info("thread " + Thread.currentThread().getName() + " terminated.");
         }, "computer-" + id);
+        dealer.registerThread(aiThread);
         aiThread.start();
     }
 
@@ -153,9 +262,11 @@ public class Player implements Runnable {
      */
     public void terminate() {
         terminate=true;
-        playerThread.interrupt();
+        Thread thread = playerThread;
+        if (thread == null) return; // not started yet (it will not enter its loop)
+        thread.interrupt();
         try {
-            playerThread.join();
+            thread.join();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -167,8 +278,10 @@ public class Player implements Runnable {
      * @param slot - the slot corresponding to the key pressed.
      */
     public void keyPressed(int slot) {
-        if(!panelty&&!point&&!dealer.isReshuffling){
-            keyPressQueue.offer(slot);
+        keysPressed.increment();
+        boolean accepting = dealer.gate.playing() != 0 || env.config.reshuffleKeyPolicy == ReshuffleKeyPolicy.DEFER;
+        if(panelty||point||!accepting||!keyPressQueue.offer(slot)){
+            keysDropped.increment();
         }
     }
 
@@ -181,19 +294,9 @@ public class Player implements Runnable {
     public void point() {
         point=true;
         env.ui.setScore(id, ++score);
-        long seconds=env.config.pointFreezeMillis;
-        while (seconds>0 )
-        {
-
-            
-                env.ui.setFreeze(id, seconds);
-                seconds=seconds-dealer.second;
-                try {Thread.sleep(dealer.second);}
-                catch (InterruptedException ignore) {}
-            
-        }
+        dealer.scored(this, score);
+        freeze(env.config.pointFreezeMillis);
         point=false;
-        env.ui.setFreeze(id,0);
         int ignored = table.countCards(); // this part is just for demonstration in the unit tests
         
     }
@@ -203,20 +306,55 @@ public class Player implements Runnable {
      */
     public void penalty() {
         panelty=true;
-        long seconds=env.config.penaltyFreezeMillis;
-        while (seconds>0 )
-        {
-            env.ui.setFreeze(id, seconds);
-            seconds=seconds-dealer.second;
-            try {Thread.sleep(dealer.second);}
-            catch (InterruptedException ignore) {}
-        }
+        ++penalties;
+        freeze(env.config.penaltyFreezeMillis);
         panelty=false;
-        env.ui.setFreeze(id,0);
 
     }
 
+    /**
+     * Keeps the player frozen for the given time, showing the time left once a second (or until terminated).
+     *
+     * @param millis - the length of the freeze.
+     */
+    private void freeze(long millis) {
+        long until = env.clock.millis() + millis;
+        for (long left = millis; left > 0 && !terminate; left = until - env.clock.millis()) {
+            env.ui.setFreeze(id, left);
+            try {
+                env.clock.sleep(Math.min(left, FREEZE_DISPLAY_MILLIS));
+            } catch (InterruptedException ignored) {}
+        }
+        env.ui.setFreeze(id, 0);
+    }
+
+    /**
+     * @return - true iff the player is frozen (after a point or a penalty).
+     */
+    public boolean isFrozen() {
+        return point || panelty;
+    }
+
     public int score() {
         return score;
     }
+
+    /**
+     * @param won - true iff the player won the game.
+     * @return    - the player's statistics in the game (called once the game is over).
+     */
+    public StatsStore.PlayerStats result(boolean won) {
+        return new StatsStore.PlayerStats(env.config.playerNames[id], 1, won ? 1 : 0, score, penalties, setNanos,
+                reactionTimes.snapshot());
+    }
+
+    /**
+     * Sets the score of the player in a recovered game (before the game starts).
+     *
+     * @param score - the score the player had.
+     */
+    void restoreScore(int score) {
+        this.score = score;
+        env.ui.setScore(id, score);
+    }
 }
@@ -0,0 +1,74 @@
+package bguspl.set.ex;
+
+import bguspl.set.Clock;
+
+/**
+ * Validates the claims whose slots all lie in one region of the table, in parallel with the claims of the other
+ * regions (sharded mode, see config.regions). Claims spanning more than one region are left to the dealer.
+ */
+class RegionValidator implements Runnable {
+
+    /**
+     * The dealer coordinating the regions (owns the deck and the region locks).
+     */
+    private final Dealer dealer;
+
+    /**
+     * The region of the table this validator is responsible for.
+     */
+    final int region;
+
+    /**
+     * Orders the claims of this region by the time they were made.
+     */
+    final ClaimArbiter arbiter;
+
+    /**
+     * True iff the validator should be terminated.
+     */
+    private volatile boolean terminate;
+
+    private final Clock clock;
+
+    RegionValidator(Dealer dealer, int region, ClaimArbiter arbiter, Clock clock) {
+        this.dealer = dealer;
+        this.region = region;
+        this.arbiter = arbiter;
+        this.clock = clock;
+    }
+
+    /**
+     * The validator thread starts here (main loop for the validator thread).
+     */
+    @Override
+    public void run() {
+        while (!terminate) {
+            try {
+                synchronized (this) {
+                    long claimTime = arbiter.millisUntilReady(clock.nanos());
+                    if (claimTime != 0 && !terminate) clock.await(this, Math.max(claimTime, 0));
+                }
+            } catch (InterruptedException ignored) {}
+            dealer.resolveClaims(arbiter);
+        }
+    }
+
+    /**
+     * Submits a claim whose slots all lie in this region.
+     *
+     * @param player - the player making the claim.
+     * @param time   - the time (env.clock.nanos) in which the last token was placed.
+     */
+    void claim(int player, long time) {
+        arbiter.submit(player, time);
+        synchronized (this) { notifyAll(); }
+    }
+
+    /**
+     * Called when the validator should be terminated.
+     */
+    void terminate() {
+        terminate = true;
+        synchronized (this) { notifyAll(); }
+    }
+}
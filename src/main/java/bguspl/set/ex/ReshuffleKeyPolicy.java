@@ -0,0 +1,19 @@
+package bguspl.set.ex;
+
+/**
+ * What happens to the keys a player presses while the dealer deals or reshuffles the table (see
+ * config.reshuffleKeyPolicy). Either way, a key applied to the table while the dealer started dealing or reshuffling
+ * is taken back, and computer players wait (parked) for play to resume instead of pressing keys.
+ */
+public enum ReshuffleKeyPolicy {
+
+    /**
+     * The keys are dropped.
+     */
+    DROP,
+
+    /**
+     * The keys are queued (as long as the player's queue has room), and applied once play resumes.
+     */
+    DEFER
+}
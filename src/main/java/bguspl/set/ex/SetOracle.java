@@ -0,0 +1,186 @@
+package bguspl.set.ex;
+
+import bguspl.set.CompletionTable;
+import bguspl.set.Env;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Answers whether the cards left in the game still contain a set (i.e. whether the game should end).
+ * The number of sets among the cards left in the game is kept up to date as cards leave the game, so checking
+ * costs nothing; other card collections are checked once and cached by their bitset.
+ *
+ * @inv liveSets == the number of legal sets among the live cards
+ */
+class SetOracle {
+
+    /**
+     * The maximal number of card collections whose answer is cached.
+     */
+    private static final int CACHE_SIZE = 64;
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * The cards that are still in the game (in the deck or on the table).
+     */
+    private final BitSet live;
+
+    /**
+     * The number of legal sets among the live cards.
+     */
+    private long liveSets;
+
+    /**
+     * Scratch space for the cards of a set (allocated once, used under the oracle's lock).
+     */
+    private final int[] set;
+
+    /**
+     * The sets each card is part of (null unless sets have three cards, see CompletionTable).
+     */
+    private final CompletionTable completions;
+
+    /**
+     * Set existence of other card collections, keyed by their bitset (least recently used are evicted).
+     */
+    private final Map<BitSet, Boolean> cache = new LinkedHashMap<BitSet, Boolean>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BitSet, Boolean> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * @param env   - the game environment object.
+     * @param cards - the cards in the game.
+     */
+    SetOracle(Env env, Collection<Integer> cards) {
+        this.env = env;
+        set = new int[env.config.featureSize];
+        completions = CompletionTable.forDeck(env.config);
+        live = toBitSet(cards);
+
+        // each set is counted once for each of its cards
+        long count = 0;
+        for (int card = live.nextSetBit(0); card >= 0; card = live.nextSetBit(card + 1))
+            count += setsContaining(card);
+        liveSets = count / env.config.featureSize;
+    }
+
+    private static BitSet toBitSet(Collection<Integer> cards) {
+        BitSet bits = new BitSet();
+        for (int card : cards)
+            bits.set(card);
+        return bits;
+    }
+
+    /**
+     * Called when a card leaves the game (i.e. it was part of a set that was claimed).
+     *
+     * @param card - the card leaving the game.
+     */
+    synchronized void remove(int card) {
+        if (!live.get(card)) return;
+        liveSets -= setsContaining(card);
+        live.clear(card);
+    }
+
+    /**
+     * @return - the number of legal sets among the cards that are still in the game.
+     */
+    synchronized long liveSets() {
+        return liveSets;
+    }
+
+    /**
+     * Checks whether a collection of cards contains a legal set.
+     *
+     * @param cards - a collection of cards.
+     * @return - true iff the cards contain at least one legal set.
+     */
+    synchronized boolean hasSets(Collection<Integer> cards) {
+        BitSet key = toBitSet(cards);
+        if (key.equals(live)) return liveSets > 0;
+        return cache.computeIfAbsent(key, k -> !env.util.findSets(new ArrayList<>(cards), 1).isEmpty());
+    }
+
+    /**
+     * Finds a set among the cards left in the game with as many of the given cards as possible (i.e. the set that
+     * takes the fewest cards from the rest of the game to complete).
+     *
+     * @param cards - live cards (e.g. the cards on the table).
+     * @return - the cards of the set, or null if no set is left in the game.
+     */
+    synchronized int[] closestSet(Collection<Integer> cards) {
+        BitSet given = toBitSet(cards);
+        for (int fromGiven = set.length - 1; fromGiven >= 0; fromGiven--)
+            if (closestSet(given, fromGiven, 0, 0)) return set.clone();
+        return null;
+    }
+
+    /**
+     * Extends a partial set with given cards (in ascending order) until it has fromGiven of them, then with other live
+     * cards (in ascending order), and computes the last card.
+     */
+    private boolean closestSet(BitSet given, int fromGiven, int size, int from) {
+        if (size == set.length - 1) {
+            int last = env.util.completeSet(set, size);
+            if (last == -1 || !live.get(last)) return false;
+            set[size] = last;
+            return true;
+        }
+
+        boolean pickGiven = size < fromGiven;
+        for (int card = live.nextSetBit(from); card >= 0; card = live.nextSetBit(card + 1)) {
+            if (given.get(card) != pickGiven) continue;
+            set[size] = card;
+            if (closestSet(given, fromGiven, size + 1, size + 1 == fromGiven ? 0 : card + 1)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts the sets among the live cards that contain the given card. The sets of the card are listed by the
+     * completion table if there is one; otherwise the other cards of each set are chosen in ascending order and the
+     * last one is computed, so each set is counted once.
+     *
+     * @param card - a live card.
+     * @return - the number of sets among the live cards containing the card.
+     */
+    private long setsContaining(int card) {
+        if (completions != null) {
+            long count = 0;
+            for (int i = 0; i < completions.setsOf(card); i++) {
+                int id = completions.setOf(card, i);
+                if (live.get(completions.card(id, 0)) && live.get(completions.card(id, 1)) && live.get(completions.card(id, 2)))
+                    ++count;
+            }
+            return count;
+        }
+        set[0] = card;
+        return setsContaining(set, 1, 0);
+    }
+
+    private long setsContaining(int[] set, int size, int from) {
+        if (size == set.length - 1) {
+            int last = env.util.completeSet(set, size);
+            return last > set[size - 1] && last != set[0] && live.get(last) ? 1 : 0;
+        }
+
+        long count = 0;
+        for (int card = live.nextSetBit(from); card >= 0; card = live.nextSetBit(card + 1)) {
+            if (card == set[0]) continue;
+            set[size] = card;
+            count += setsContaining(set, size + 1, card + 1);
+        }
+        return count;
+    }
+}
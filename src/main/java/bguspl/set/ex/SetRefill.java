@@ -0,0 +1,95 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Chooses the cards dealt to the table so the table has at least config.refillSets sets. The cards are first drawn at
+ * random, and kept as they are if the table has enough sets; otherwise, while it has too few, a drawn card that is not
+ * part of a set is swapped for a deck card that completes a set with the cards on the table. The completing card of
+ * each combination of featureSize - 1 table cards is computed (see Util.completeSet) and looked up in the deck, so a
+ * swap costs C(tableSize, featureSize - 1) lookups whatever the size of the deck, and each swap adds a set.
+ * Not thread safe: used by the dealer while it locks the deck.
+ */
+class SetRefill {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * Scratch space for the cards of a combination.
+     */
+    private final int[] combination;
+
+    SetRefill(Env env) {
+        this.env = env;
+        combination = new int[env.config.featureSize];
+    }
+
+    /**
+     * Swaps drawn cards for deck cards until the table has enough sets, or no swap adds a set.
+     *
+     * @param kept   - the cards that stay on the table.
+     * @param dealt  - the cards drawn from the deck for the free slots (swapped in place).
+     * @param deck   - the deck (the cards swapped out are returned to it).
+     * @param random - chooses among the cards that may be swapped.
+     * @return - the number of cards swapped.
+     */
+    int refill(List<Integer> kept, int[] dealt, Deck deck, Random random) {
+        int wanted = env.config.refillSets;
+        boolean[] swapped = new boolean[dealt.length];
+        int swaps = 0;
+        while (true) {
+            List<Integer> table = new ArrayList<>(kept.size() + dealt.length);
+            table.addAll(kept);
+            for (int card : dealt)
+                table.add(card);
+            List<int[]> sets = env.util.findSets(table, Integer.MAX_VALUE);
+            if (sets.size() >= wanted) return swaps;
+
+            BitSet inSets = new BitSet();
+            for (int[] set : sets)
+                for (int card : set)
+                    inSets.set(card);
+            List<Integer> victims = new ArrayList<>(dealt.length);
+            for (int i = 0; i < dealt.length; i++)
+                if (!swapped[i] && !inSets.get(dealt[i])) victims.add(i);
+            if (victims.isEmpty()) return swaps;
+
+            int victim = victims.get(random.nextInt(victims.size()));
+            table.remove(Integer.valueOf(dealt[victim]));
+            List<Integer> completions = new ArrayList<>();
+            completions(table, 0, 0, deck, completions);
+            if (completions.isEmpty()) return swaps;
+
+            int card = completions.get(random.nextInt(completions.size()));
+            deck.remove(card);
+            deck.add(dealt[victim]);
+            dealt[victim] = card;
+            swapped[victim] = true;
+            ++swaps;
+        }
+    }
+
+    /**
+     * Collects the deck cards that complete a set with featureSize - 1 of the table cards (a card completing more than
+     * one set is collected once for each).
+     */
+    private void completions(List<Integer> table, int size, int from, Deck deck, List<Integer> completions) {
+        if (size == combination.length - 1) {
+            int card = env.util.completeSet(combination, size);
+            if (deck.contains(card)) completions.add(card);
+            return;
+        }
+        for (int i = from; i < table.size(); i++) {
+            combination[size] = table.get(i);
+            completions(table, size + 1, i + 1, deck, completions);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package bguspl.set.ex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Chooses where the cards of a set go when a table that has no set gets one (see NoSetPolicy.REPLACE): each card of
+ * the set that is not on the table takes a free slot if there is one, and otherwise replaces a card that is not part
+ * of the set, chosen at random, so as few cards as possible are replaced. Shared by the dealer and the simulator, which
+ * then move the cards themselves.
+ */
+final class SetReplacement {
+
+    private SetReplacement() {}
+
+    /**
+     * Chooses the slots for the cards of a set.
+     *
+     * @param slots  - the card in each slot of the table (-1 if none).
+     * @param set    - the cards of the set to put on the table.
+     * @param random - chooses among the cards that may be replaced.
+     * @return - the slot chosen for each card of the set (-1 for a card already on the table), or null if the table
+     *           has too few slots for the set.
+     */
+    static int[] choose(int[] slots, int[] set, Random random) {
+        List<Integer> free = new ArrayList<>(slots.length);
+        List<Integer> spare = new ArrayList<>(slots.length);
+        int[] chosen = new int[set.length];
+        for (int i = 0; i < set.length; i++)
+            chosen[i] = -1;
+        boolean[] onTable = new boolean[set.length];
+        for (int slot = 0; slot < slots.length; slot++) {
+            int i = indexOf(set, slots[slot]);
+            if (slots[slot] == -1) free.add(slot);
+            else if (i == -1) spare.add(slot);
+            else onTable[i] = true;
+        }
+        Collections.shuffle(spare, random);
+        for (int i = 0; i < set.length; i++) {
+            if (onTable[i]) continue;
+            if (!free.isEmpty()) chosen[i] = free.remove(0);
+            else if (!spare.isEmpty()) chosen[i] = spare.remove(spare.size() - 1);
+            else return null;
+        }
+        return chosen;
+    }
+
+    /**
+     * @return - the index of the card among the given cards (-1 if it is not one of them).
+     */
+    private static int indexOf(int[] cards, int card) {
+        for (int i = 0; i < cards.length; i++)
+            if (cards[i] == card) return i;
+        return -1;
+    }
+}
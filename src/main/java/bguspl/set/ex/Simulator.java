@@ -0,0 +1,264 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.HeadlessUserInterface;
+import bguspl.set.Histogram;
+import bguspl.set.Main;
+import bguspl.set.Metrics;
+import bguspl.set.UtilImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Plays many games without threads, sleeps or wall-clock time, to show how the settings (the turn timeout, the freezes,
+ * the table delay and the grid size) shape the game. The games use the game's own rules (Util), deck (Deck) and end
+ * condition (SetOracle); only the players are modeled: each finds a set on the table after a random, exponentially
+ * distributed time (config.simulationSearchMillis on average), and is wrong at config.simulationMistakeRate.
+ * Time is a logical clock that jumps from one event to the next. A table with no set is handled as the dealer would
+ * (see config.noSetPolicy), and the cards are dealt as the dealer deals them (see config.refillSets).
+ * The games are spread over the cores, and their distributions are collected into shared histograms.
+ */
+public class Simulator {
+
+    private final Env env;
+
+    /**
+     * The length of each game (logical milliseconds), the number of sets on the table after each deal, and the number
+     * of reshuffles and of points in each game.
+     */
+    private final Histogram gameLength;
+    private final Histogram setsPerDeal;
+    private final Histogram reshuffles;
+    private final Histogram points;
+
+    /**
+     * The number of deals, and of deals that left no set on the table.
+     */
+    private final LongAdder deals;
+    private final LongAdder deadDeals;
+
+    private final LongAdder games;
+
+    /**
+     * @param env - the game environment object (its user interface is not used).
+     */
+    public Simulator(Env env) {
+        this.env = env;
+        gameLength = env.metrics.histogram("simulation.game.length");
+        setsPerDeal = env.metrics.histogram("simulation.deal.sets");
+        reshuffles = env.metrics.histogram("simulation.game.reshuffles");
+        points = env.metrics.histogram("simulation.game.points");
+        deals = env.metrics.counter("simulation.deals");
+        deadDeals = env.metrics.counter("simulation.deals.dead");
+        games = env.metrics.counter("simulation.games");
+    }
+
+    /**
+     * Plays games on a pool of threads and waits for them to end.
+     *
+     * @param count   - the number of games.
+     * @param threads - the number of threads.
+     * @throws InterruptedException - if interrupted while waiting for the games.
+     */
+    public void run(int count, int threads) throws InterruptedException {
+        AtomicInteger ids = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> new Thread(task, "simulator-" + ids.getAndIncrement()));
+        for (int i = 0; i < threads; i++) {
+            int share = count / threads + (i < count % threads ? 1 : 0);
+            pool.execute(() -> {
+                Random random = new Random();
+                for (int game = 0; game < share; game++)
+                    play(random);
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Plays one game, the way the dealer does: deals the table, lets the players claim sets until the turn times out,
+     * returns the cards to the deck and deals again, until there are no sets left among the cards in the game.
+     *
+     * @param random - the random numbers of the game.
+     */
+    void play(Random random) {
+        Config config = env.config;
+        Deck deck = new Deck(config.deckSize, random);
+        SetRefill refill = new SetRefill(env);
+        SetOracle oracle = new SetOracle(env, deck.cards());
+        int[] slots = new int[config.tableSize];
+        Arrays.fill(slots, -1);
+        long[] frozenUntil = new long[config.players];
+        long now = 0;
+        int shuffles = 0;
+        int scored = 0;
+
+        while (oracle.liveSets() > 0) {
+            now += deal(deck, slots, refill, random) * config.tableDelayMillis;
+            List<int[]> sets = setsOnTable(slots);
+            long deadline = config.turnTimeoutMillis > 0 ? now + config.turnTimeoutMillis : Long.MAX_VALUE;
+            while (true) {
+                if (sets.isEmpty() && config.noSetPolicy == NoSetPolicy.REPLACE) {
+                    int replaced = replace(oracle, deck, slots, random);
+                    if (replaced == 0) break;
+                    now += 2 * replaced * config.tableDelayMillis;
+                    if (deadline != Long.MAX_VALUE) deadline = now + config.turnTimeoutMillis;
+                    sets = setsOnTable(slots);
+                }
+                if (sets.isEmpty()) break;
+                // the first player to find a set claims it
+                int finder = 0;
+                long found = Long.MAX_VALUE;
+                for (int player = 0; player < frozenUntil.length; player++) {
+                    long search = (long) (-config.simulationSearchMillis * Math.log(1 - random.nextDouble()));
+                    long time = Math.max(now, frozenUntil[player]) + search;
+                    if (time < found) {
+                        found = time;
+                        finder = player;
+                    }
+                }
+                if (found >= deadline) break;
+                now = found;
+                if (random.nextDouble() < config.simulationMistakeRate) {
+                    frozenUntil[finder] = now + config.penaltyFreezeMillis;
+                    continue;
+                }
+                frozenUntil[finder] = now + config.pointFreezeMillis;
+                ++scored;
+                for (int card : sets.get(random.nextInt(sets.size()))) {
+                    for (int slot = 0; slot < slots.length; slot++)
+                        if (slots[slot] == card) slots[slot] = -1;
+                    oracle.remove(card);
+                }
+                now += config.featureSize * config.tableDelayMillis;
+                if (oracle.liveSets() == 0) break;
+                now += deal(deck, slots, refill, random) * config.tableDelayMillis;
+                sets = setsOnTable(slots);
+            }
+            if (oracle.liveSets() == 0) break;
+
+            // the turn timed out (or, with no turn timeout, there is no set to wait for), or the table has no set
+            boolean waited = !sets.isEmpty() || config.noSetPolicy == NoSetPolicy.NONE;
+            if (waited && deadline != Long.MAX_VALUE) now = Math.max(now, deadline);
+            for (int slot = 0; slot < slots.length; slot++) {
+                if (slots[slot] == -1) continue;
+                deck.add(slots[slot]);
+                slots[slot] = -1;
+                now += config.tableDelayMillis;
+            }
+            ++shuffles;
+        }
+
+        gameLength.record(now);
+        reshuffles.record(shuffles);
+        points.record(scored);
+        games.increment();
+    }
+
+    /**
+     * Fills the empty slots with cards from the deck.
+     *
+     * @return - the number of cards dealt.
+     */
+    private int deal(Deck deck, int[] slots, SetRefill refill, Random random) {
+        List<Integer> kept = new ArrayList<>(slots.length);
+        int free = 0;
+        for (int card : slots) {
+            if (card == -1) ++free;
+            else kept.add(card);
+        }
+        int[] cards = new int[Math.min(free, deck.size())];
+        for (int i = 0; i < cards.length; i++)
+            cards[i] = deck.draw();
+        if (env.config.refillSets > 0 && cards.length > 0) refill.refill(kept, cards, deck, random);
+
+        int dealt = 0;
+        for (int slot = 0; slot < slots.length && dealt < cards.length; slot++)
+            if (slots[slot] == -1) slots[slot] = cards[dealt++];
+        return dealt;
+    }
+
+    /**
+     * Replaces as few cards on the table as possible with cards from the deck, so the table has a set (see
+     * NoSetPolicy.REPLACE), as the dealer does (see SetReplacement).
+     *
+     * @return - the number of cards replaced (0 if no set is left in the game).
+     */
+    private static int replace(SetOracle oracle, Deck deck, int[] slots, Random random) {
+        List<Integer> cards = new ArrayList<>(slots.length);
+        for (int card : slots)
+            if (card != -1) cards.add(card);
+        int[] set = oracle.closestSet(cards);
+        int[] chosen = set == null ? null : SetReplacement.choose(slots, set, random);
+        if (chosen == null) return 0;
+
+        int replaced = 0;
+        for (int i = 0; i < set.length; i++) {
+            int slot = chosen[i];
+            if (slot == -1) continue;
+            if (slots[slot] != -1) deck.add(slots[slot]);
+            deck.remove(set[i]);
+            slots[slot] = set[i];
+            ++replaced;
+        }
+        return replaced;
+    }
+
+    /**
+     * Finds the sets on the table (after a deal), and counts the deal.
+     */
+    private List<int[]> setsOnTable(int[] slots) {
+        List<Integer> cards = new ArrayList<>(slots.length);
+        for (int card : slots)
+            if (card != -1) cards.add(card);
+        List<int[]> sets = env.util.findSets(cards, Integer.MAX_VALUE);
+        deals.increment();
+        setsPerDeal.record(sets.size());
+        if (sets.isEmpty()) deadDeals.increment();
+        return sets;
+    }
+
+    /**
+     * @return - the distributions of the games played so far.
+     */
+    public String report() {
+        long dealCount = deals.sum();
+        String nl = System.lineSeparator();
+        return "games: " + games.sum() + nl
+                + "game length (ms): " + gameLength.snapshot() + nl
+                + "points per game: " + points.snapshot() + nl
+                + "reshuffles per game: " + reshuffles.snapshot() + nl
+                + "sets per deal: " + setsPerDeal.snapshot() + nl
+                + String.format("deals with no set: %d of %d (%.2f%%)", deadDeals.sum(), dealCount,
+                        dealCount == 0 ? 0 : 100.0 * deadDeals.sum() / dealCount) + nl;
+    }
+
+    /**
+     * Simulates config.simulationGames games with the settings of config.properties, on all the cores.
+     *
+     * @param args - unused.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Logger logger = Main.initLogger("simulation-");
+        Config config = new Config(logger, "config.properties");
+        Env env = new Env(logger, config, new HeadlessUserInterface(), new UtilImpl(config), new Metrics());
+        Simulator simulator = new Simulator(env);
+        int threads = Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        simulator.run(config.simulationGames, threads);
+        String report = String.format("simulated %d games on %d threads in %.1fs%n", config.simulationGames, threads,
+                (System.nanoTime() - start) / 1e9) + simulator.report();
+        logger.severe(report);
+        System.out.print(report);
+    }
+}
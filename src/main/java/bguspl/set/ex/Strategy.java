@@ -0,0 +1,79 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+/**
+ * The strategies of the computer players: each chooses the keys a player presses.
+ */
+public enum Strategy {
+
+    /**
+     * Presses random keys.
+     */
+    RANDOM {
+        @Override
+        IntSupplier keys(Env env, Table table, int player) {
+            Random random = new Random();
+            return () -> random.nextInt(env.config.tableSize);
+        }
+    },
+
+    /**
+     * Looks for a set on the table and presses its keys (after removing the player's other tokens), or presses random
+     * keys if there is none.
+     */
+    SMART {
+        @Override
+        IntSupplier keys(Env env, Table table, int player) {
+            Random random = new Random();
+            int[] pending = new int[2 * env.config.featureSize];
+            int[] next = {0, 0}; // the index of the next pending key, and the number of pending keys
+            return () -> {
+                if (next[0] == next[1]) {
+                    next[0] = next[1] = 0;
+                    List<Integer> cards = new ArrayList<>(env.config.tableSize);
+                    for (int slot = 0; slot < env.config.tableSize; slot++) {
+                        int card = table.slotToCardInt(slot);
+                        if (card != -1) cards.add(card);
+                    }
+                    List<int[]> sets = env.util.findSets(cards, 1);
+                    if (sets.isEmpty()) return random.nextInt(env.config.tableSize);
+
+                    int[] slots = new int[env.config.featureSize];
+                    for (int i = 0; i < slots.length; i++) {
+                        Integer slot = table.cardToSlot[sets.get(0)[i]];
+                        if (slot == null) return random.nextInt(env.config.tableSize);
+                        slots[i] = slot;
+                    }
+                    for (int slot = 0; slot < env.config.tableSize; slot++)
+                        if (table.contains(player, slot) && !contains(slots, slot)) pending[next[1]++] = slot;
+                    for (int slot : slots)
+                        if (!table.contains(player, slot)) pending[next[1]++] = slot;
+                    if (next[1] == 0) return random.nextInt(env.config.tableSize);
+                }
+                return pending[next[0]++];
+            };
+        }
+    };
+
+    /**
+     * Creates the key chooser of a player (used by the player's computer thread only).
+     *
+     * @param env    - the game environment object.
+     * @param table  - the table of the game.
+     * @param player - the id of the player.
+     * @return - supplies the slot of each key the player presses.
+     */
+    abstract IntSupplier keys(Env env, Table table, int player);
+
+    private static boolean contains(int[] slots, int slot) {
+        for (int s : slots)
+            if (s == slot) return true;
+        return false;
+    }
+}
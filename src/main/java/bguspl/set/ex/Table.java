@@ -1,11 +1,15 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.Histogram;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 import java.util.stream.Collectors;
 
 /**
@@ -30,10 +34,27 @@ public class Table {
      */
     protected final Integer[] cardToSlot; // slot per card (if any)
 
-    protected final Integer[][] tokens;//show the tokens for each player.
+    protected final int[][] tokens;//show the tokens for each player (slot per token, -1 if none).
 
     protected final Object[] tokenLock;
 
+    /**
+     * The time the slot locks are held while placing and removing cards (in nanoseconds).
+     */
+    private final Histogram lockHoldTime;
+
+    /**
+     * Lets readers copy the whole table without locking it (see snapshot): held for writing around each change to the
+     * cards or tokens, which also counts the changes made so far.
+     */
+    private final StampedLock changeLock = new StampedLock();
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * The time the last card was placed on the table (env.clock.nanos).
+     */
+    private volatile long dealtAt;
+
 
     /**
      * Constructor for testing.
@@ -47,11 +68,16 @@ public class Table {
         this.env = env;
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
-        this.tokens=new Integer[env.config.players][3];
+        this.tokens=new int[env.config.players][env.config.featureSize];
+        for (int[] playerTokens : tokens){
+            Arrays.fill(playerTokens, -1);
+        }
         this.tokenLock=new Object[env.config.tableSize];
         for (int i=0;i< tokenLock.length;i++){
             tokenLock[i]=new Object();
         }
+        this.lockHoldTime=env.metrics.histogram("table.lock.hold");
+        this.dealtAt=env.clock.nanos();
     }
 
     /**
@@ -65,16 +91,14 @@ public class Table {
     }
 
     /**
-     * This method prints all possible legal sets of cards that are currently on the table.
+     * @return - the cards currently on the table.
      */
-    public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
-            StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
-            int[][] features = env.util.cardsToFeatures(set);
-            System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
-        });
+    public List<Integer> cards() {
+        List<Integer> cards = new ArrayList<>(slotToCard.length);
+        for (Integer card : slotToCard)
+            if (card != null)
+                cards.add(card);
+        return cards;
     }
 
     /**
@@ -90,6 +114,16 @@ public class Table {
         return cards;
     }
 
+    /**
+     * Count the number of legal sets among the cards currently on the table.
+     *
+     * @return - the number of sets on the table.
+     */
+    public int countSets() {
+        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
+        return env.util.findSets(deck, Integer.MAX_VALUE).size();
+    }
+
     /**
      * Places a card on the table in a grid slot.
      * @param card - the card id to place in the slot.
@@ -99,13 +133,18 @@ public class Table {
      */
     public void placeCard(int card, int slot) {
         synchronized(tokenLock[slot]){
+        long start = System.nanoTime();
         try {
-            Thread.sleep(env.config.tableDelayMillis);
+            env.clock.sleep(env.config.tableDelayMillis);
         } catch (InterruptedException ignored) {}
         
+            long stamp = beginWrite();
             cardToSlot[card] = slot;
             slotToCard[slot] = card;
+            endWrite(stamp);
+            dealtAt = env.clock.nanos();
             env.ui.placeCard(card, slot);
+            lockHoldTime.record(System.nanoTime() - start);
         }
         
     
@@ -117,21 +156,25 @@ public class Table {
      */
     public void removeCard(int slot) {
         synchronized(tokenLock[slot]){
+            long start = System.nanoTime();
             try {
-                Thread.sleep(env.config.tableDelayMillis);
+                env.clock.sleep(env.config.tableDelayMillis);
             } catch (InterruptedException ignored) {}
             for (int player=0; player<tokens.length;player++){
                 
                 for (int i=0 ; i<tokens[player].length;i++){
                     
-                    if(tokens[player][i]!=null &&tokens[player][i]==slot){
+                    if(tokens[player][i]==slot){
                         removeToken(player,slot);
                     }
                 }  
             }
+            long stamp = beginWrite();
             cardToSlot[slotToCard[slot]]=null;
             slotToCard[slot]=null;
+            endWrite(stamp);
             env.ui.removeCard(slot);
+            lockHoldTime.record(System.nanoTime() - start);
         }
     }
 
@@ -145,8 +188,10 @@ public class Table {
         synchronized(tokenLock[slot]){
             if(slotToCard[slot] != null){
                 for(int i=0;i<tokens[player].length&&!found;i++){
-                        if(tokens[player][i]==null){
-                        tokens[player][i]=slot; 
+                        if(tokens[player][i]==-1){
+                        long stamp = beginWrite();
+                        tokens[player][i]=slot;
+                        endWrite(stamp);
                         env.ui.placeToken(player, slot);
                         found=true;
                     }       
@@ -165,8 +210,10 @@ public class Table {
         synchronized(tokenLock[slot]){
             if(slotToCard[slot] != null)
             for(int i=0;i<tokens[player].length;i++){
-                if(tokens[player][i]!=null&&tokens[player][i]==slot){
-                    tokens[player][i]=null;
+                if(tokens[player][i]==slot){
+                    long stamp = beginWrite();
+                    tokens[player][i]=-1;
+                    endWrite(stamp);
                     env.ui.removeToken(player,slot);
                     return true;
                 }
@@ -176,6 +223,54 @@ public class Table {
 
     }
 
+    private long beginWrite() {
+        return changeLock.writeLock();
+    }
+
+    private void endWrite(long stamp) {
+        version.incrementAndGet();
+        changeLock.unlockWrite(stamp);
+    }
+
+    /**
+     * @return - the time the last card was placed on the table (env.clock.nanos).
+     */
+    public long dealtAt() {
+        return dealtAt;
+    }
+
+    /**
+     * @return - the number of changes made to the cards and tokens on the table so far.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Copies the cards and tokens on the table, as they were at one moment, without blocking the players or the
+     * dealer: the copy is taken under an optimistic read of the change lock and retried until no change was made
+     * while it was taken. The change lock is held only around the changes themselves (and every change is made before
+     * it is shown on the user interface), so a snapshot taken while holding the user interface lock never waits for a
+     * writer that waits for the lock.
+     * @param cards  - receives the card in each slot (-1 if none).
+     * @param tokens - receives the slot of each token of each player (-1 if none).
+     * @return       - the version of the table that was copied.
+     */
+    public long snapshot(int[] cards, int[][] tokens) {
+        for (int attempt = 0; ; ++attempt) {
+            long stamp = changeLock.tryOptimisticRead();
+            if (stamp != 0) {
+                long copied = version.get();
+                for (int slot = 0; slot < slotToCard.length; slot++)
+                    cards[slot] = slotToCardInt(slot);
+                for (int player = 0; player < this.tokens.length; player++)
+                    System.arraycopy(this.tokens[player], 0, tokens[player], 0, this.tokens[player].length);
+                if (changeLock.validate(stamp)) return copied; // validate orders the copy before its check
+            }
+            if (attempt > 16) Thread.yield();
+        }
+    }
+
     public List<Integer> freeSlots (){
         List<Integer> freeSlotslList= new LinkedList<Integer>();
         for (int i=0 ; i<slotToCard.length ; i++){
@@ -192,24 +287,48 @@ public class Table {
     }
 
 
-    public int[][] getPlayerCardsAndSlots (int id){
-        int [][] cardsAndSlots = new int[2][env.config.featureSize];
+    /**
+     * Copies the cards and slots a player placed tokens on into the given arrays (allocates nothing).
+     * @param id    - the player.
+     * @param cards - receives the card of each token.
+     * @param slots - receives the slot of each token.
+     * @return      - true iff the player has all of his tokens on cards.
+     */
+    public boolean getPlayerCardsAndSlots (int id, int[] cards, int[] slots){
+        boolean full = true;
+        for (int i=0;i<tokens[id].length;i++){
+            int slot = tokens [id][i];
+            slots[i]=slot;
+            cards[i]=slot == -1 ? -1 : slotToCardInt(slot);
+            if (cards[i]==-1)
+                full = false;
+        }
+        return full;
+    }
+    /**
+     * @param slot - a slot on the table.
+     * @return     - the region of the table the slot belongs to (see config.regions).
+     */
+    public int region(int slot){
+        return slot * env.config.regions / env.config.tableSize;
+    }
+
+    /**
+     * @param id - the player.
+     * @return   - a bit mask of the regions of the table the player's tokens are in.
+     */
+    public long tokenRegions(int id){
+        long regions = 0;
         for (int i=0;i<tokens[id].length;i++){
-            if (tokens[id][i]==null){
-                cardsAndSlots[1][i]=-1;
-            }
-            else{
-                int slot = tokens [id][i];
-                int card= slotToCardInt(slot);
-                cardsAndSlots[0][i]=card;
-                cardsAndSlots[1][i]=slot;
-            }
+            if(tokens[id][i]!=-1)
+                regions |= 1L << region(tokens[id][i]);
         }
-        return cardsAndSlots;
+        return regions;
     }
+
     public boolean contains(int id,int slot){
         for (int i=0;i<tokens[id].length;i++){
-            if(tokens[id][i]!=null && tokens[id][i]==(Integer)slot)
+            if(tokens[id][i]==slot)
                 return true;
         }
         return false;
@@ -218,7 +337,7 @@ public class Table {
     public boolean isTokenFull(int id){
         int counter=0;
         for (int i=0;i<tokens[id].length;i++){
-            if(tokens[id][i]!=null)
+            if(tokens[id][i]!=-1)
                 counter++;
         }
         return counter==env.config.featureSize;
@@ -0,0 +1,221 @@
+package bguspl.set.net;
+
+import bguspl.set.UserInterface;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A blocking client of the game server (see Protocol), replaying the game onto a user interface.
+ * Snapshots are replayed followed by the recent batches that are newer than them.
+ * Running it as a program joins a local game server and presses random keys, printing every frame received.
+ */
+public class GameClient implements Closeable {
+
+    private final SocketChannel channel;
+
+    /**
+     * The user interface the game is replayed onto (null to ignore the user interface frames).
+     */
+    private final UserInterface ui;
+
+    private final ByteBuffer header = ByteBuffer.allocate(Protocol.HEADER);
+
+    /**
+     * The frames of the last batch received that were not returned yet.
+     */
+    private final Queue<ByteBuffer> unbatched = new ArrayDeque<>();
+    private final Inflater inflater = new Inflater();
+    private final byte[] inflated = new byte[Protocol.MAX_BATCH];
+
+    /**
+     * The sequence number of the last batch received (-1 if none).
+     */
+    private int sequence = -1;
+
+    /**
+     * The frames of the last batches received, by sequence number (replayed after a snapshot that is older).
+     */
+    private final Deque<List<ByteBuffer>> recent = new ArrayDeque<>();
+    private final Deque<Integer> recentSequences = new ArrayDeque<>();
+    private static final int RECENT_BATCHES = 64;
+
+    /**
+     * The player this client joined as (-1 for a spectator).
+     */
+    private volatile int player = -1;
+
+    /**
+     * @param host - the host of the server.
+     * @param port - the port of the server.
+     * @param ui   - the user interface to replay the game onto (null to ignore the user interface frames).
+     * @throws IOException - if the server cannot be reached.
+     */
+    public GameClient(String host, int port, UserInterface ui) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        this.ui = ui;
+    }
+
+    /**
+     * Asks to join the game as a player (the answer arrives as a WELCOME or REJECT frame, see receive).
+     *
+     * @param player - the player to join as (Protocol.ANY_PLAYER for any free human player).
+     */
+    public void join(int player) throws IOException {
+        write(Protocol.join(player));
+    }
+
+    /**
+     * Presses the key of a slot (ignored by the server unless the client joined as a player).
+     *
+     * @param slot - the slot.
+     */
+    public void press(int slot) throws IOException {
+        write(Protocol.key(slot));
+    }
+
+    /**
+     * @return - the player this client joined as (-1 if it did not join).
+     */
+    public int player() {
+        return player;
+    }
+
+    /**
+     * @return - the sequence number of the last batch received (-1 if none).
+     */
+    public int sequence() {
+        return sequence;
+    }
+
+    /**
+     * Blocks until a frame is received, replays it onto the user interface and returns it.
+     * Batches are unpacked: their frames are returned one by one.
+     *
+     * @return - the frame received, without its header.
+     * @throws EOFException - if the server closed the connection.
+     */
+    public ByteBuffer receive() throws IOException {
+        ByteBuffer frame = unbatched.poll();
+        while (frame == null) {
+            header.clear();
+            readFully(header);
+            frame = ByteBuffer.allocate(header.getShort(0) & 0xFFFF);
+            readFully(frame);
+            frame.flip();
+            if (frame.get(0) == Protocol.BATCH) {
+                unbatch(frame);
+                frame = unbatched.poll();
+            }
+        }
+        byte type = frame.get(0);
+        if (type == Protocol.WELCOME) player = frame.getShort(1) & 0xFFFF;
+        else if (type == Protocol.REJECT) player = -1;
+        else if (ui != null) {
+            Protocol.dispatch(frame.duplicate(), ui);
+            if (type == Protocol.SNAPSHOT) replayAfter(frame.getInt(1));
+        }
+        return frame;
+    }
+
+    /**
+     * Replays the recent batches whose sequence number is at least the given one.
+     */
+    private void replayAfter(int snapshotSequence) {
+        Iterator<Integer> sequences = recentSequences.iterator();
+        for (List<ByteBuffer> frames : recent) {
+            if (sequences.next() - snapshotSequence < 0) continue;
+            for (ByteBuffer frame : frames)
+                Protocol.dispatch(frame.duplicate(), ui);
+        }
+    }
+
+    private void unbatch(ByteBuffer frame) throws IOException {
+        frame.get();
+        sequence = frame.getInt();
+        ByteBuffer frames = frame;
+        if (frame.get() != 0) {
+            inflater.reset();
+            inflater.setInput(frame.array(), frame.position(), frame.remaining());
+            try {
+                frames = ByteBuffer.wrap(inflated, 0, inflater.inflate(inflated));
+            } catch (DataFormatException e) {
+                throw new IOException("corrupt batch " + sequence, e);
+            }
+        }
+        List<ByteBuffer> batch = new ArrayList<>();
+        int length;
+        while ((length = Protocol.frameLength(frames)) != -1 && length <= frames.remaining()) {
+            ByteBuffer inner = ByteBuffer.allocate(length - Protocol.HEADER);
+            frames.position(frames.position() + Protocol.HEADER);
+            int limit = frames.limit();
+            frames.limit(frames.position() + inner.capacity());
+            inner.put(frames).flip();
+            frames.limit(limit);
+            unbatched.add(inner);
+            batch.add(inner);
+        }
+        recent.addLast(batch);
+        recentSequences.addLast(sequence);
+        if (recent.size() > RECENT_BATCHES) {
+            recent.removeFirst();
+            recentSequences.removeFirst();
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer) < 0) throw new EOFException("connection closed by the server");
+    }
+
+    private synchronized void write(ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) channel.write(frame);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Joins a local game server and presses random keys until the game ends.
+     *
+     * @param args - the port of the server, the player to join as (optional) and the table size (optional).
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = Integer.parseInt(args[0]);
+        int player = args.length > 1 ? Integer.parseInt(args[1]) : Protocol.ANY_PLAYER;
+        int tableSize = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+        try (GameClient client = new GameClient("localhost", port, null)) {
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) System.out.println(Protocol.describe(client.receive()));
+                } catch (IOException e) {
+                    System.out.println("disconnected: " + e.getMessage());
+                }
+            }, "client-reader");
+            reader.setDaemon(true);
+            reader.start();
+            client.join(player);
+            Random random = new Random();
+            while (reader.isAlive()) {
+                client.press(random.nextInt(tableSize));
+                Thread.sleep(100);
+            }
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package bguspl.set.net;
+
+import bguspl.set.Config;
+import bguspl.set.Metrics;
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Accepts remote players and spectators over the binary protocol (see Protocol), on a single non-blocking selector
+ * thread. Key presses of the joined players are fed to Player.keyPressed, and the frames passed to broadcast are
+ * sent to every connection. Once per network tick the server thread runs its tick listeners (which flush the game
+ * streams). New connections get a snapshot of the game first. A connection that falls more than
+ * config.networkBacklogBytes behind skips the frames it has not started receiving and gets a new snapshot instead;
+ * if it did not receive anything since its last snapshot, it is dropped. Slow clients never hold back the game or
+ * the other clients.
+ */
+public class GameServer implements Runnable {
+
+    private final Config config;
+    private final Logger logger;
+
+    /**
+     * The players of the game (filled in before the server thread starts).
+     */
+    private final Player[] players;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * The open connections (added and removed by the server thread only).
+     */
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The connection each human player joined from (accessed by the server thread only).
+     */
+    private final Connection[] joined;
+
+    /**
+     * True iff frames were queued since the server thread last flushed the connections.
+     */
+    private final AtomicBoolean pendingWrites = new AtomicBoolean();
+
+    /**
+     * Run by the server thread once per network tick.
+     */
+    private final List<Runnable> tickListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Takes the snapshots sent to new and slow connections (null if there are none).
+     */
+    private volatile Supplier<ByteBuffer> snapshotSource;
+
+    private final LongAdder framesIn;
+    private final LongAdder framesOut;
+    private final LongAdder keysRejected;
+    private final LongAdder dropped;
+    private final LongAdder resynced;
+
+    /**
+     * True iff the server should be terminated.
+     */
+    private volatile boolean terminate;
+
+    /**
+     * A client connection.
+     */
+    private static class Connection {
+
+        final SocketChannel channel;
+        final SelectionKey key;
+
+        /**
+         * The bytes received and not yet parsed.
+         */
+        final ByteBuffer in = ByteBuffer.allocate(2 * (Protocol.HEADER + Protocol.MAX_CLIENT_FRAME));
+
+        /**
+         * The frames to send (the frame being sent is at the head).
+         */
+        final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The number of bytes queued and not yet written.
+         */
+        final AtomicLong backlog = new AtomicLong();
+
+        /**
+         * True iff the connection fell too far behind and should be dropped.
+         */
+        volatile boolean slow;
+
+        /**
+         * The number of frames written to the connection, and that number when it was last sent a snapshot because
+         * it fell behind (accessed by the server thread only).
+         */
+        long written;
+        long writtenAtResync = -1;
+
+        /**
+         * The player that joined from this connection (-1 for a spectator).
+         */
+        int player = -1;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Binds the server (it does not accept connections until its thread starts).
+     *
+     * @param config  - the game configuration.
+     * @param port    - the port to listen on (0 for any free port).
+     * @param players - the players of the game (may be filled in until the server thread starts).
+     * @param metrics - the metrics registry.
+     * @param logger  - the logger.
+     * @throws IOException - if the port cannot be bound.
+     */
+    public GameServer(Config config, int port, Player[] players, Metrics metrics, Logger logger) throws IOException {
+        this.config = config;
+        this.logger = logger;
+        this.players = players;
+        joined = new Connection[players.length];
+        framesIn = metrics.counter("net.frames.in");
+        framesOut = metrics.counter("net.frames.out");
+        keysRejected = metrics.counter("net.keys.rejected");
+        dropped = metrics.counter("net.clients.dropped");
+        resynced = metrics.counter("net.clients.resynced");
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return - the port the server listens on.
+     */
+    public int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return - the number of open connections.
+     */
+    public int connections() {
+        return connections.size();
+    }
+
+    /**
+     * Adds a task the server thread runs once per network tick.
+     *
+     * @param listener - the task.
+     */
+    public void addTickListener(Runnable listener) {
+        tickListeners.add(listener);
+    }
+
+    /**
+     * Sets the source of the snapshots sent to new connections and to connections that fall behind.
+     *
+     * @param source - returns a SNAPSHOT frame, or null if there is no snapshot.
+     */
+    public void setSnapshotSource(Supplier<ByteBuffer> source) {
+        snapshotSource = source;
+    }
+
+    /**
+     * Sends a frame to every connection. Never blocks: the frame is queued and written by the server thread.
+     *
+     * @param frame - the frame (shared by all the connections, so it must not be modified afterwards).
+     */
+    public void broadcast(ByteBuffer frame) {
+        long maxBacklog = config.networkBacklogBytes;
+        for (Connection connection : connections) {
+            if (connection.slow) continue;
+            if (connection.backlog.get() + frame.remaining() > maxBacklog) connection.slow = true;
+            else {
+                connection.backlog.addAndGet(frame.remaining());
+                connection.out.add(frame.duplicate());
+            }
+        }
+        if (pendingWrites.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    /**
+     * The server thread starts here (main loop of the selector).
+     */
+    @Override
+    public void run() {
+        logger.info("game server listening on port " + port());
+        long tick = TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.networkTickMillis));
+        long nextTick = System.nanoTime() + tick;
+        try {
+            while (!terminate) {
+                long timeout = TimeUnit.NANOSECONDS.toMillis(nextTick - System.nanoTime());
+                if (timeout > 0) selector.select(timeout);
+                else selector.selectNow();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) read(connection);
+                        if (key.isValid() && key.isWritable()) write(connection);
+                    }
+                }
+                if (System.nanoTime() - nextTick >= 0) {
+                    nextTick += tick;
+                    if (System.nanoTime() - nextTick >= 0) nextTick = System.nanoTime() + tick; // fell behind
+                    for (Runnable listener : tickListeners) listener.run();
+                }
+                if (pendingWrites.getAndSet(false))
+                    for (Connection connection : connections)
+                        if (connection.slow) resync(connection);
+                        else if (!connection.out.isEmpty()) write(connection);
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!terminate) logger.severe("game server failed: " + e);
+        } finally {
+            for (Connection connection : connections) close(connection);
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Called when the server should be terminated.
+     */
+    public void terminate() {
+        terminate = true;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Connection connection = new Connection(channel, key);
+            key.attach(connection);
+            connections.add(connection);
+            sendSnapshot(connection);
+        }
+    }
+
+    private void read(Connection connection) {
+        try {
+            if (connection.channel.read(connection.in) < 0) {
+                close(connection);
+                return;
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        ByteBuffer in = connection.in;
+        in.flip();
+        int length;
+        while ((length = Protocol.frameLength(in)) != -1) {
+            // checked as soon as the header is in: a longer frame would never fit in the buffer
+            if (length == Protocol.HEADER || length > Protocol.HEADER + Protocol.MAX_CLIENT_FRAME) {
+                send(connection, Protocol.reject(Protocol.REJECT_MALFORMED));
+                close(connection);
+                return;
+            }
+            if (length > in.remaining()) break;
+            int end = in.position() + length;
+            in.position(in.position() + Protocol.HEADER);
+            framesIn.increment();
+            handle(connection, in);
+            in.position(end);
+        }
+        in.compact();
+    }
+
+    private void handle(Connection connection, ByteBuffer frame) {
+        byte type = frame.get();
+        if (type == Protocol.JOIN && frame.remaining() >= 2) join(connection, frame.getShort() & 0xFFFF);
+        else if (type == Protocol.KEY && frame.remaining() >= 2) {
+            int slot = frame.getShort() & 0xFFFF;
+            if (connection.player != -1 && slot < config.tableSize) players[connection.player].keyPressed(slot);
+            else keysRejected.increment();
+        } else send(connection, Protocol.reject(Protocol.REJECT_MALFORMED));
+    }
+
+    private void join(Connection connection, int player) {
+        if (connection.player != -1) joined[connection.player] = null;
+        connection.player = -1;
+        if (player == Protocol.ANY_PLAYER) {
+            for (int i = 0; i < config.humanPlayers && player == Protocol.ANY_PLAYER; i++)
+                if (joined[i] == null) player = i;
+            if (player == Protocol.ANY_PLAYER) {
+                send(connection, Protocol.reject(Protocol.REJECT_TAKEN));
+                return;
+            }
+        }
+        if (player >= config.humanPlayers) send(connection, Protocol.reject(Protocol.REJECT_NOT_HUMAN));
+        else if (joined[player] != null) send(connection, Protocol.reject(Protocol.REJECT_TAKEN));
+        else {
+            joined[player] = connection;
+            connection.player = player;
+            send(connection, Protocol.welcome(player, config.rows, config.columns, config.players));
+            logger.info("player " + (player + 1) + " joined from " + connection.channel.socket().getRemoteSocketAddress());
+        }
+    }
+
+    private void send(Connection connection, ByteBuffer frame) {
+        connection.backlog.addAndGet(frame.remaining());
+        connection.out.add(frame.duplicate());
+        write(connection);
+    }
+
+    /**
+     * Writes the queued frames of a connection until they are all written or the socket buffer is full.
+     */
+    private void write(Connection connection) {
+        try {
+            ByteBuffer frame;
+            while ((frame = connection.out.peek()) != null) {
+                connection.channel.write(frame);
+                if (frame.hasRemaining()) break;
+                connection.out.poll();
+                connection.backlog.addAndGet(-frame.limit());
+                ++connection.written;
+                framesOut.increment();
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        if (connection.key.isValid())
+            connection.key.interestOps(connection.out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Queues a snapshot for a connection (the frames queued before it are replayed by the client if they are newer).
+     */
+    private void sendSnapshot(Connection connection) {
+        Supplier<ByteBuffer> source = snapshotSource;
+        ByteBuffer snapshot = source == null ? null : source.get();
+        if (snapshot == null) return;
+        connection.backlog.addAndGet(snapshot.remaining());
+        connection.out.add(snapshot.duplicate());
+        write(connection);
+    }
+
+    /**
+     * Replaces the frames a slow connection did not start receiving with a snapshot, or drops the connection if it
+     * did not receive anything since it was last sent one.
+     */
+    private void resync(Connection connection) {
+        Supplier<ByteBuffer> source = snapshotSource;
+        if (source == null || connection.written == connection.writtenAtResync) {
+            drop(connection);
+            return;
+        }
+        connection.writtenAtResync = connection.written;
+        Iterator<ByteBuffer> frames = connection.out.iterator();
+        boolean head = true;
+        while (frames.hasNext()) {
+            ByteBuffer frame = frames.next();
+            if (!(head && frame.position() > 0)) { // a frame that was partially written must be completed
+                frames.remove();
+                connection.backlog.addAndGet(-frame.remaining());
+            }
+            head = false;
+        }
+        resynced.increment();
+        connection.slow = false;
+        sendSnapshot(connection);
+    }
+
+    private void drop(Connection connection) {
+        dropped.increment();
+        logger.warning("dropping slow client " + connection.channel.socket().getRemoteSocketAddress());
+        close(connection);
+    }
+
+    private void close(Connection connection) {
+        connections.remove(connection);
+        if (connection.player != -1 && joined[connection.player] == connection) joined[connection.player] = null;
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {}
+    }
+}
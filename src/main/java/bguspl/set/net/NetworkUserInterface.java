@@ -0,0 +1,237 @@
+package bguspl.set.net;
+
+import bguspl.set.Metrics;
+import bguspl.set.UserInterface;
+import bguspl.set.ex.GameSnapshot;
+
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Streams every user interface call to the clients of a game server before forwarding it to the local user interface.
+ * The calls are encoded into a batch that the server sends once per network tick, deflated when it is large enough
+ * to gain from it. Each batch is encoded once and shared by all the connections.
+ * Clients that join late, or fall behind, catch up from a snapshot of the game (see Protocol.SNAPSHOT).
+ */
+public class NetworkUserInterface implements UserInterface {
+
+    /**
+     * Batches shorter than this are sent as they are.
+     */
+    private static final int COMPRESS_THRESHOLD = 256;
+
+    private final GameServer server;
+
+    /**
+     * The local user interface (null if there is none).
+     */
+    private final UserInterface ui;
+
+    /**
+     * The frames of the current batch, and the space it needs left for one more frame (guarded by this).
+     */
+    private final ByteBuffer batch = ByteBuffer.allocate(Protocol.MAX_BATCH);
+    private final int maxFrame;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final byte[] deflated = new byte[Protocol.MAX_BATCH];
+
+    /**
+     * The sequence number of the next batch.
+     */
+    private int sequence;
+
+    /**
+     * Takes snapshots of the game (null until the game is created).
+     */
+    private volatile Supplier<GameSnapshot> game;
+
+    private final LongAdder rawBytes;
+    private final LongAdder sentBytes;
+
+    /**
+     * @param server  - the server to stream the calls to (flushes the batch once per network tick).
+     * @param ui      - the local user interface (null if there is none).
+     * @param players - the number of players in the game.
+     * @param metrics - the metrics registry.
+     */
+    public NetworkUserInterface(GameServer server, UserInterface ui, int players, Metrics metrics) {
+        this.server = server;
+        this.ui = ui;
+        this.maxFrame = Protocol.maxUiFrame(players);
+        rawBytes = metrics.counter("net.batch.bytes.raw");
+        sentBytes = metrics.counter("net.batch.bytes.sent");
+        server.addTickListener(this::flush);
+        server.setSnapshotSource(this::snapshot);
+    }
+
+    /**
+     * Sets the game whose snapshots are sent to the clients that join late or fall behind.
+     *
+     * @param game - takes snapshots of the game (e.g. Dealer.snapshot).
+     */
+    public void setGame(Supplier<GameSnapshot> game) {
+        this.game = game;
+    }
+
+    /**
+     * Sends the current batch and takes a snapshot of the game. Every change not in the snapshot is made after it
+     * is taken, and is therefore shown in a batch that is not sent yet (the lock keeps the game from adding to the
+     * batch meanwhile).
+     *
+     * @return - the SNAPSHOT frame, or null if there is no game yet.
+     */
+    public synchronized ByteBuffer snapshot() {
+        Supplier<GameSnapshot> game = this.game;
+        if (game == null) return null;
+        flush();
+        return Protocol.snapshot(sequence, game.get());
+    }
+
+    /**
+     * Sends the current batch (if it is not empty).
+     */
+    public synchronized void flush() {
+        if (batch.position() > 0) seal();
+    }
+
+    /**
+     * Makes sure the batch has room for one more frame (must hold the lock).
+     */
+    private void reserve() {
+        if (batch.remaining() < maxFrame) seal();
+    }
+
+    private void seal() {
+        batch.flip();
+        int raw = batch.remaining();
+        ByteBuffer payload = batch;
+        boolean compressed = false;
+        if (raw >= COMPRESS_THRESHOLD) {
+            deflater.reset();
+            deflater.setInput(batch.array(), 0, raw);
+            deflater.finish();
+            int length = deflater.deflate(deflated);
+            if (deflater.finished() && length < raw) {
+                payload = ByteBuffer.wrap(deflated, 0, length);
+                compressed = true;
+            }
+        }
+        rawBytes.add(raw);
+        sentBytes.add(payload.remaining());
+        server.broadcast(Protocol.batch(sequence++, compressed, payload));
+        batch.clear();
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        synchronized (this) {
+            reserve();
+            Protocol.placeCard(batch, card, slot);
+        }
+        if (ui != null) ui.placeCard(card, slot);
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        synchronized (this) {
+            reserve();
+            Protocol.removeCard(batch, slot);
+        }
+        if (ui != null) ui.removeCard(slot);
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        synchronized (this) {
+            reserve();
+            Protocol.placeToken(batch, player, slot);
+        }
+        if (ui != null) ui.placeToken(player, slot);
+    }
+
+    @Override
+    public void removeTokens() {
+        synchronized (this) {
+            reserve();
+            Protocol.removeTokens(batch);
+        }
+        if (ui != null) ui.removeTokens();
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        synchronized (this) {
+            reserve();
+            Protocol.removeTokens(batch, slot);
+        }
+        if (ui != null) ui.removeTokens(slot);
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        synchronized (this) {
+            reserve();
+            Protocol.removeToken(batch, player, slot);
+        }
+        if (ui != null) ui.removeToken(player, slot);
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        synchronized (this) {
+            reserve();
+            Protocol.countdown(batch, millies, warn);
+        }
+        if (ui != null) ui.setCountdown(millies, warn);
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        synchronized (this) {
+            reserve();
+            Protocol.elapsed(batch, millies);
+        }
+        if (ui != null) ui.setElapsed(millies);
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        synchronized (this) {
+            reserve();
+            Protocol.freeze(batch, player, millies);
+        }
+        if (ui != null) ui.setFreeze(player, millies);
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        synchronized (this) {
+            reserve();
+            Protocol.score(batch, player, score);
+        }
+        if (ui != null) ui.setScore(player, score);
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        synchronized (this) {
+            reserve();
+            Protocol.winners(batch, players);
+            seal();
+        }
+        if (ui != null) ui.announceWinner(players);
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            reserve();
+            Protocol.dispose(batch);
+            seal();
+        }
+        if (ui != null) ui.dispose();
+    }
+}
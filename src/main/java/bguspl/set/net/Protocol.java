@@ -0,0 +1,353 @@
+package bguspl.set.net;
+
+import bguspl.set.UserInterface;
+import bguspl.set.ex.GameSnapshot;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The binary protocol of the game server. Every frame is a 2 byte (unsigned, big endian) length of the rest of the
+ * frame, followed by a 1 byte frame type and its fields. Players and slots are unsigned shorts, cards are ints and
+ * times are longs (in milliseconds).
+ *
+ * The server to client frames mirror the UserInterface calls, so a client can replay them onto any user interface.
+ * They are sent in batches, once per network tick (see NetworkUserInterface).
+ *
+ * A client that joins late (or falls behind) gets a SNAPSHOT of the game first, tagged with the sequence number of the
+ * first batch that is not included in it. The user interface frames are idempotent, so the client catches up by
+ * replaying the snapshot and then every batch whose sequence number is at least the snapshot's, including batches it
+ * received before the snapshot arrived.
+ */
+public final class Protocol {
+
+    private Protocol() {}
+
+    /**
+     * The length of the frame header.
+     */
+    public static final int HEADER = 2;
+
+    /**
+     * The longest frame a client may send (excluding the header).
+     */
+    public static final int MAX_CLIENT_FRAME = 16;
+
+    // client to server frames
+
+    /**
+     * Join the game as a player: player (ANY_PLAYER for any free human player).
+     */
+    public static final byte JOIN = 1;
+
+    /**
+     * A key press of the joined player: slot.
+     */
+    public static final byte KEY = 2;
+
+    public static final int ANY_PLAYER = 0xFFFF;
+
+    // server to client frames
+
+    /**
+     * The client joined the game: player, rows, columns, players.
+     */
+    public static final byte WELCOME = 16;
+
+    /**
+     * The client could not join the game: reason.
+     */
+    public static final byte REJECT = 17;
+
+    public static final byte REJECT_TAKEN = 1;
+    public static final byte REJECT_NOT_HUMAN = 2;
+    public static final byte REJECT_MALFORMED = 3;
+
+    public static final byte PLACE_CARD = 32; // card, slot
+    public static final byte REMOVE_CARD = 33; // slot
+    public static final byte PLACE_TOKEN = 34; // player, slot
+    public static final byte REMOVE_ALL_TOKENS = 35;
+    public static final byte REMOVE_TOKENS = 36; // slot
+    public static final byte REMOVE_TOKEN = 37; // player, slot
+    public static final byte COUNTDOWN = 38; // millis, warn
+    public static final byte ELAPSED = 39; // millis
+    public static final byte FREEZE = 40; // player, millis
+    public static final byte SCORE = 41; // player, score
+    public static final byte WINNERS = 42; // count, players
+    public static final byte DISPOSE = 43;
+
+    /**
+     * A batch of user interface frames: sequence number (int), compressed (byte), then the frames (each with its
+     * header), deflated if compressed.
+     */
+    public static final byte BATCH = 48;
+
+    /**
+     * The longest batch payload (so a batch frame length fits its header).
+     */
+    public static final int MAX_BATCH = 0xFFFF - 6;
+
+    /**
+     * The state of the game: sequence number of the next batch (int), deck size (int), countdown (long), the card in
+     * each slot (count, then an int per slot, -1 for none), and per player (count): score (int) and the slots of its
+     * tokens (count, then a short per token).
+     */
+    public static final byte SNAPSHOT = 49;
+
+    private static ByteBuffer frame(byte type, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER + 1 + length);
+        frame.putShort((short) (1 + length));
+        frame.put(type);
+        return frame;
+    }
+
+    private static ByteBuffer done(ByteBuffer frame) {
+        frame.flip();
+        return frame.asReadOnlyBuffer();
+    }
+
+    public static ByteBuffer join(int player) {
+        return done(frame(JOIN, 2).putShort((short) player));
+    }
+
+    public static ByteBuffer key(int slot) {
+        return done(frame(KEY, 2).putShort((short) slot));
+    }
+
+    public static ByteBuffer welcome(int player, int rows, int columns, int players) {
+        return done(frame(WELCOME, 8).putShort((short) player).putShort((short) rows).putShort((short) columns)
+                .putShort((short) players));
+    }
+
+    public static ByteBuffer reject(byte reason) {
+        return done(frame(REJECT, 1).put(reason));
+    }
+
+    /**
+     * The longest user interface frame for the given number of players (including the header).
+     */
+    public static int maxUiFrame(int players) {
+        return HEADER + 1 + Math.max(12, 2 + 2 * players);
+    }
+
+    // the user interface frames are appended to a batch (see NetworkUserInterface)
+
+    private static ByteBuffer put(ByteBuffer out, byte type, int length) {
+        return out.putShort((short) (1 + length)).put(type);
+    }
+
+    public static void placeCard(ByteBuffer out, int card, int slot) {
+        put(out, PLACE_CARD, 6).putInt(card).putShort((short) slot);
+    }
+
+    public static void removeCard(ByteBuffer out, int slot) {
+        put(out, REMOVE_CARD, 2).putShort((short) slot);
+    }
+
+    public static void placeToken(ByteBuffer out, int player, int slot) {
+        put(out, PLACE_TOKEN, 4).putShort((short) player).putShort((short) slot);
+    }
+
+    public static void removeTokens(ByteBuffer out) {
+        put(out, REMOVE_ALL_TOKENS, 0);
+    }
+
+    public static void removeTokens(ByteBuffer out, int slot) {
+        put(out, REMOVE_TOKENS, 2).putShort((short) slot);
+    }
+
+    public static void removeToken(ByteBuffer out, int player, int slot) {
+        put(out, REMOVE_TOKEN, 4).putShort((short) player).putShort((short) slot);
+    }
+
+    public static void countdown(ByteBuffer out, long millies, boolean warn) {
+        put(out, COUNTDOWN, 9).putLong(millies).put((byte) (warn ? 1 : 0));
+    }
+
+    public static void elapsed(ByteBuffer out, long millies) {
+        put(out, ELAPSED, 8).putLong(millies);
+    }
+
+    public static void freeze(ByteBuffer out, int player, long millies) {
+        put(out, FREEZE, 10).putShort((short) player).putLong(millies);
+    }
+
+    public static void score(ByteBuffer out, int player, int score) {
+        put(out, SCORE, 6).putShort((short) player).putInt(score);
+    }
+
+    public static void winners(ByteBuffer out, int[] players) {
+        put(out, WINNERS, 2 + 2 * players.length).putShort((short) players.length);
+        for (int player : players) out.putShort((short) player);
+    }
+
+    public static void dispose(ByteBuffer out) {
+        put(out, DISPOSE, 0);
+    }
+
+    /**
+     * Wraps a batch of user interface frames.
+     *
+     * @param sequence   - the sequence number of the batch.
+     * @param compressed - true iff the frames are deflated.
+     * @param payload    - the frames (deflated if compressed).
+     * @return - the batch frame, in a direct buffer (so it is written to the sockets without copying).
+     */
+    public static ByteBuffer batch(int sequence, boolean compressed, ByteBuffer payload) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(HEADER + 6 + payload.remaining());
+        frame.putShort((short) (6 + payload.remaining())).put(BATCH).putInt(sequence).put((byte) (compressed ? 1 : 0));
+        frame.put(payload);
+        frame.flip();
+        return frame.asReadOnlyBuffer();
+    }
+
+    public static ByteBuffer snapshot(int sequence, GameSnapshot snapshot) {
+        int length = 4 + 4 + 8 + 2 + 4 * snapshot.cards.length + 2;
+        for (int[] tokens : snapshot.tokens) {
+            length += 4 + 2;
+            for (int slot : tokens) if (slot != -1) length += 2;
+        }
+        ByteBuffer frame = frame(SNAPSHOT, length).putInt(sequence).putInt(snapshot.deckSize)
+                .putLong(snapshot.countdownMillis).putShort((short) snapshot.cards.length);
+        for (int card : snapshot.cards) frame.putInt(card);
+        frame.putShort((short) snapshot.tokens.length);
+        for (int player = 0; player < snapshot.tokens.length; player++) {
+            frame.putInt(snapshot.scores[player]);
+            int count = 0;
+            for (int slot : snapshot.tokens[player]) if (slot != -1) ++count;
+            frame.putShort((short) count);
+            for (int slot : snapshot.tokens[player]) if (slot != -1) frame.putShort((short) slot);
+        }
+        return done(frame);
+    }
+
+    /**
+     * @param buffer - a buffer positioned at the start of a frame.
+     * @return - the length of the whole frame (including the header), or -1 if the header is not complete.
+     */
+    public static int frameLength(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER) return -1;
+        return HEADER + (buffer.getShort(buffer.position()) & 0xFFFF);
+    }
+
+    /**
+     * Replays a server to client frame onto a user interface.
+     *
+     * @param frame - the frame, without its header (consumed by this call).
+     * @param ui    - the user interface to replay the frame onto.
+     * @return - true iff the frame is a user interface call (and was replayed).
+     */
+    public static boolean dispatch(ByteBuffer frame, UserInterface ui) {
+        switch (frame.get()) {
+            case PLACE_CARD: {
+                int card = frame.getInt();
+                ui.placeCard(card, frame.getShort() & 0xFFFF);
+                return true;
+            }
+            case REMOVE_CARD:
+                ui.removeCard(frame.getShort() & 0xFFFF);
+                return true;
+            case PLACE_TOKEN: {
+                int player = frame.getShort() & 0xFFFF;
+                ui.placeToken(player, frame.getShort() & 0xFFFF);
+                return true;
+            }
+            case REMOVE_ALL_TOKENS:
+                ui.removeTokens();
+                return true;
+            case REMOVE_TOKENS:
+                ui.removeTokens(frame.getShort() & 0xFFFF);
+                return true;
+            case REMOVE_TOKEN: {
+                int player = frame.getShort() & 0xFFFF;
+                ui.removeToken(player, frame.getShort() & 0xFFFF);
+                return true;
+            }
+            case COUNTDOWN: {
+                long millies = frame.getLong();
+                ui.setCountdown(millies, frame.get() != 0);
+                return true;
+            }
+            case ELAPSED:
+                ui.setElapsed(frame.getLong());
+                return true;
+            case FREEZE: {
+                int player = frame.getShort() & 0xFFFF;
+                ui.setFreeze(player, frame.getLong());
+                return true;
+            }
+            case SCORE: {
+                int player = frame.getShort() & 0xFFFF;
+                ui.setScore(player, frame.getInt());
+                return true;
+            }
+            case WINNERS: {
+                int[] players = new int[frame.getShort() & 0xFFFF];
+                for (int i = 0; i < players.length; i++) players[i] = frame.getShort() & 0xFFFF;
+                ui.announceWinner(players);
+                return true;
+            }
+            case DISPOSE:
+                ui.dispose();
+                return true;
+            case SNAPSHOT: {
+                frame.getInt(); // sequence
+                frame.getInt(); // deck size
+                long countdown = frame.getLong();
+                ui.removeTokens();
+                int slots = frame.getShort() & 0xFFFF;
+                for (int slot = 0; slot < slots; slot++) {
+                    int card = frame.getInt();
+                    if (card == -1) ui.removeCard(slot);
+                    else ui.placeCard(card, slot);
+                }
+                int players = frame.getShort() & 0xFFFF;
+                for (int player = 0; player < players; player++) {
+                    ui.setScore(player, frame.getInt());
+                    for (int tokens = frame.getShort() & 0xFFFF; tokens > 0; tokens--)
+                        ui.placeToken(player, frame.getShort() & 0xFFFF);
+                }
+                if (countdown >= 0) ui.setCountdown(countdown, false);
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param frame - a frame, without its header (not consumed by this call).
+     * @return - a human readable description of the frame.
+     */
+    public static String describe(ByteBuffer frame) {
+        ByteBuffer f = frame.duplicate();
+        byte type = f.get();
+        switch (type) {
+            case JOIN: return "join " + (f.getShort() & 0xFFFF);
+            case KEY: return "key " + (f.getShort() & 0xFFFF);
+            case WELCOME: return "welcome player " + (f.getShort() & 0xFFFF) + " rows " + (f.getShort() & 0xFFFF)
+                    + " columns " + (f.getShort() & 0xFFFF) + " players " + (f.getShort() & 0xFFFF);
+            case REJECT: return "reject " + f.get();
+            case PLACE_CARD: return "place card " + f.getInt() + " slot " + (f.getShort() & 0xFFFF);
+            case REMOVE_CARD: return "remove card slot " + (f.getShort() & 0xFFFF);
+            case PLACE_TOKEN: return "place token player " + (f.getShort() & 0xFFFF) + " slot " + (f.getShort() & 0xFFFF);
+            case REMOVE_ALL_TOKENS: return "remove all tokens";
+            case REMOVE_TOKENS: return "remove tokens slot " + (f.getShort() & 0xFFFF);
+            case REMOVE_TOKEN: return "remove token player " + (f.getShort() & 0xFFFF) + " slot " + (f.getShort() & 0xFFFF);
+            case COUNTDOWN: return "countdown " + f.getLong() + (f.get() != 0 ? " (warn)" : "");
+            case ELAPSED: return "elapsed " + f.getLong();
+            case FREEZE: return "freeze player " + (f.getShort() & 0xFFFF) + " " + f.getLong();
+            case SCORE: return "score player " + (f.getShort() & 0xFFFF) + " " + f.getInt();
+            case WINNERS: {
+                int[] players = new int[f.getShort() & 0xFFFF];
+                for (int i = 0; i < players.length; i++) players[i] = f.getShort() & 0xFFFF;
+                return "winners " + Arrays.toString(players);
+            }
+            case DISPOSE: return "dispose";
+            case SNAPSHOT: return "snapshot " + f.getInt() + " deck " + f.getInt() + " countdown " + f.getLong()
+                    + " " + (f.getShort() & 0xFFFF) + " slots";
+            case BATCH: return "batch " + f.getInt() + (f.get() != 0 ? " (compressed)" : "") + " " + f.remaining() + " bytes";
+            default: return "unknown frame " + type;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks Util.findSets on the large deck variants (3^6 and 4^5 cards): the whole deck, which is searched on the
+ * fork-join pool (see config.parallelSearchThreshold), and tables of 12 and 21 cards. Each case is warmed up and then
+ * timed over a fixed number of runs, on cards chosen with a fixed seed, and the times are printed (the number of sets
+ * found is checked by FindSetsTest). Excluded from the default build; run with mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+class FindSetsBenchmarkTest {
+
+    private static final int WARMUP_RUNS = 1;
+    private static final int DECK_RUNS = 3;
+    private static final int TABLE_RUNS = 20_000;
+
+    @Test
+    void deckOf3To6() {
+        benchmark(3, 6);
+    }
+
+    @Test
+    void deckOf4To5() {
+        benchmark(4, 5);
+    }
+
+    private static void benchmark(int featureSize, int featureCount) {
+        Util util = FindSetsTest.util(featureSize, featureCount);
+        List<Integer> deck = FindSetsTest.deck(featureSize, featureCount);
+        String shape = featureSize + "^" + featureCount;
+
+        for (int run = 0; run < WARMUP_RUNS; run++)
+            util.findSets(deck, Integer.MAX_VALUE);
+        long start = System.nanoTime();
+        for (int run = 0; run < DECK_RUNS; run++)
+            util.findSets(deck, Integer.MAX_VALUE);
+        System.out.printf("findSets %s: whole deck (%d cards) %.2f ms%n", shape, deck.size(),
+                (System.nanoTime() - start) / 1e6 / DECK_RUNS);
+
+        for (int size : new int[]{12, 21}) {
+            Random random = new Random(size);
+            List<List<Integer>> tables = new ArrayList<>(64);
+            for (int i = 0; i < 64; i++) {
+                Collections.shuffle(deck, random);
+                tables.add(new ArrayList<>(deck.subList(0, size)));
+            }
+            int found = 0;
+            for (int run = 0; run < TABLE_RUNS; run++)
+                found += util.findSets(tables.get(run % tables.size()), Integer.MAX_VALUE).size();
+            start = System.nanoTime();
+            for (int run = 0; run < TABLE_RUNS; run++)
+                found += util.findSets(tables.get(run % tables.size()), Integer.MAX_VALUE).size();
+            System.out.printf("findSets %s: %d cards %.2f us (%.2f sets per table)%n", shape, size,
+                    (System.nanoTime() - start) / 1e3 / TABLE_RUNS, found / (2.0 * TABLE_RUNS));
+        }
+    }
+}
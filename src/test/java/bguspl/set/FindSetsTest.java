@@ -0,0 +1,64 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks Util.findSets on the whole deck of the large variants (3^6 and 4^5 cards), which is searched on the fork-join
+ * pool (see config.parallelSearchThreshold): the number of sets found is checked against its closed form,
+ * (k + k!)^d - k^d ordered sets of distinct cards, each counted k! times (for d features of k values).
+ */
+class FindSetsTest {
+
+    @Test
+    void deckOf3To6() {
+        assertEquals(88452, setsInDeck(3, 6));
+        assertEquals(88452, util(3, 6).findSets(deck(3, 6), Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    void deckOf4To5() {
+        assertEquals(717056, setsInDeck(4, 5));
+        assertEquals(717056, util(4, 5).findSets(deck(4, 5), Integer.MAX_VALUE).size());
+    }
+
+    static Util util(int featureSize, int featureCount) {
+        Properties properties = new Properties();
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("FeatureSize", Integer.toString(featureSize));
+        properties.setProperty("FeatureCount", Integer.toString(featureCount));
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        return new UtilImpl(new Config(logger, properties));
+    }
+
+    static List<Integer> deck(int featureSize, int featureCount) {
+        int size = (int) Math.pow(featureSize, featureCount);
+        List<Integer> deck = new ArrayList<>(size);
+        for (int card = 0; card < size; card++)
+            deck.add(card);
+        return deck;
+    }
+
+    /**
+     * @return - the number of sets in a deck of featureSize^featureCount cards.
+     */
+    private static long setsInDeck(int featureSize, int featureCount) {
+        long factorial = 1;
+        for (int i = 2; i <= featureSize; i++)
+            factorial *= i;
+        long ordered = 1;
+        long same = 1;
+        for (int i = 0; i < featureCount; i++) {
+            ordered *= featureSize + factorial;
+            same *= featureSize;
+        }
+        return (ordered - same) / factorial;
+    }
+}
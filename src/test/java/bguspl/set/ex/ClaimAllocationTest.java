@@ -0,0 +1,178 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.HeadlessUserInterface;
+import bguspl.set.UtilImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a claim allocates nothing at steady state: placing the tokens, submitting the claim, validating and
+ * resolving it (removing the cards of a set and dealing new ones, or keeping the cards of a wrong claim), responding,
+ * and the player's point or penalty. The claims are driven on the test thread, as the player and dealer threads make
+ * them, and the bytes it allocates are read from com.sun.management.ThreadMXBean after a warm-up.
+ */
+class ClaimAllocationTest {
+
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int MEASURED_ROUNDS = 200;
+
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Env env;
+    private Table table;
+    private Dealer dealer;
+    private Player player;
+    private final int[] claim = new int[3];
+    private final int[] cards = new int[3];
+    private int points;
+    private int penalties;
+
+    @BeforeEach
+    void setUp() {
+        Properties properties = new Properties();
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("HumanPlayers", "1");
+        properties.setProperty("ComputerPlayers", "0");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("PointFreezeSeconds", "0");
+        properties.setProperty("PenaltyFreezeSeconds", "0");
+        properties.setProperty("ClaimWindowSeconds", "0");
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        Config config = new Config(logger, properties);
+        env = new Env(logger, config, new HeadlessUserInterface(), new UtilImpl(config));
+        assertTrue(threads.isThreadAllocatedMemorySupported(), "allocation counting is not supported");
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    void claimAllocatesNothing() {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            deal(round);
+            playRound();
+        }
+
+        long first = allocated();
+        long overhead = allocated() - first; // of reading the allocated bytes
+        long bytes = 0;
+        points = penalties = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            deal(round);
+            long before = allocated();
+            playRound();
+            bytes += allocated() - before - overhead;
+        }
+
+        assertTrue(points > 0 && penalties > 0, "points: " + points + ", penalties: " + penalties);
+        assertEquals(0, bytes, "bytes allocated by " + (points + penalties) + " claims");
+    }
+
+    /**
+     * Starts a new game, resumed with the whole deck and some of its cards on the table (allocates, so it is not
+     * measured).
+     */
+    private void deal(int round) {
+        table = new Table(env);
+        Player[] players = new Player[env.config.players];
+        dealer = new Dealer(env, table, players);
+        player = players[0] = new Player(env, dealer, table, 0, true);
+        Checkpointer.State state = new Checkpointer.State(env.config);
+        for (int slot = 0; slot < env.config.tableSize; slot++) {
+            int card = (slot * 7 + round) % env.config.deckSize;
+            state.slots[slot] = card;
+            state.deck.clear(card);
+        }
+        dealer.restore(state);
+    }
+
+    /**
+     * Claims the sets on the table until there are none left, with a wrong claim before each.
+     */
+    private void playRound() {
+        while (true) {
+            if (wrongClaim()) makeClaim(Player.PENALTY);
+            if (!findSet()) break;
+            makeClaim(Player.POINT);
+        }
+        for (int slot = 0; slot < env.config.tableSize; slot++)
+            table.removeToken(player.id, slot);
+    }
+
+    /**
+     * Makes a claim on the slots in claim, as the player and dealer threads do (see Player.run).
+     */
+    private void makeClaim(int expected) {
+        int card = table.slotToCardInt(claim[0]);
+        int score = player.score();
+        for (int slot : claim)
+            table.placeToken(player.id, slot);
+        dealer.claim(player, env.clock.nanos());
+        dealer.resolveClaims(dealer.arbiter);
+        // the cards of a set are replaced (or removed once the deck is empty), the cards of a wrong claim stay
+        assertEquals(expected == Player.POINT, table.slotToCardInt(claim[0]) != card);
+        if (expected == Player.POINT) {
+            player.point();
+            assertEquals(score + 1, player.score());
+            ++points;
+        } else {
+            player.penalty();
+            ++penalties;
+            for (int slot : claim)
+                table.removeToken(player.id, slot);
+        }
+    }
+
+    /**
+     * @return - true iff the cards on the table contain a set (its slots are left in claim).
+     */
+    private boolean findSet() {
+        int size = env.config.tableSize;
+        for (int a = 0; a < size; a++)
+            for (int b = a + 1; b < size; b++)
+                for (int c = b + 1; c < size; c++)
+                    if (isSet(a, b, c)) return true;
+        return false;
+    }
+
+    /**
+     * @return - true iff the table has three cards that are not a set (their slots are left in claim).
+     */
+    private boolean wrongClaim() {
+        int size = env.config.tableSize;
+        for (int a = 0; a < size; a++)
+            for (int b = a + 1; b < size; b++)
+                for (int c = b + 1; c < size; c++)
+                    if (table.slotToCardInt(a) != -1 && table.slotToCardInt(b) != -1 && table.slotToCardInt(c) != -1
+                            && !isSet(a, b, c)) {
+                        claim[0] = a;
+                        claim[1] = b;
+                        claim[2] = c;
+                        return true;
+                    }
+        return false;
+    }
+
+    private boolean isSet(int a, int b, int c) {
+        cards[0] = table.slotToCardInt(a);
+        cards[1] = table.slotToCardInt(b);
+        cards[2] = table.slotToCardInt(c);
+        if (cards[0] == -1 || cards[1] == -1 || cards[2] == -1 || !env.util.testSet(cards)) return false;
+        claim[0] = a;
+        claim[1] = b;
+        claim[2] = c;
+        return true;
+    }
+
+    private long allocated() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}